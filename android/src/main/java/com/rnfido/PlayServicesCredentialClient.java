@@ -0,0 +1,333 @@
+package com.rnfido;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.content.IntentSender;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.google.android.gms.fido.Fido;
+import com.google.android.gms.fido.fido2.Fido2ApiClient;
+import com.google.android.gms.fido.fido2.api.common.Attachment;
+import com.google.android.gms.fido.fido2.api.common.AttestationConveyancePreference;
+import com.google.android.gms.fido.fido2.api.common.AuthenticationExtensions;
+import com.google.android.gms.fido.fido2.api.common.AuthenticationExtensionsClientOutputs;
+import com.google.android.gms.fido.fido2.api.common.AuthenticatorAssertionResponse;
+import com.google.android.gms.fido.fido2.api.common.AuthenticatorAttestationResponse;
+import com.google.android.gms.fido.fido2.api.common.AuthenticatorErrorResponse;
+import com.google.android.gms.fido.fido2.api.common.AuthenticatorSelectionCriteria;
+import com.google.android.gms.fido.fido2.api.common.FidoAppIdExtension;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredential;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialCreationOptions;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialDescriptor;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialParameters;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialRequestOptions;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialRpEntity;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialType;
+import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialUserEntity;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+
+/**
+ * {@link CredentialClient} backed by the Play Services FIDO2 API. Ceremonies
+ * are launched as activity results with the request code their
+ * {@link Ceremony} owns and finished in {@link #onActivityResult}.
+ *
+ * Task callbacks run on the given worker executor; only launching the
+ * intent sender hops to the main thread.
+ */
+class PlayServicesCredentialClient implements CredentialClient {
+
+    static final String E_SIGN_CANCELLED = "E_SIGN_CANCELLED";
+    static final String E_REGISTER_CANCELLED = "E_REGISTER_CANCELLED";
+    static final String E_AUTHENTICATOR_ERROR = "E_AUTHENTICATOR_ERROR";
+    static final String E_NO_ACTIVITY = "E_NO_ACTIVITY";
+    static final String E_LAUNCH_FAILED = "E_LAUNCH_FAILED";
+
+    private final ReactApplicationContext reactContext;
+    private final Executor executor;
+    private volatile Fido2ApiClient mFido2ApiClient;
+
+    PlayServicesCredentialClient(ReactApplicationContext reactContext, Executor executor) {
+        this.reactContext = reactContext;
+        this.executor = executor;
+    }
+
+    Fido2ApiClient getApiClient() {
+        Fido2ApiClient client = mFido2ApiClient;
+        if (client == null) {
+            synchronized (this) {
+                client = mFido2ApiClient;
+                if (client == null) {
+                    client = Fido.getFido2ApiClient(this.reactContext);
+                    mFido2ApiClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    Task<PendingIntent> getRegisterPendingIntent(RegisterRequest request) {
+        return getApiClient().getRegisterPendingIntent(buildRegisterOptions(request));
+    }
+
+    Task<PendingIntent> getSignPendingIntent(SignRequest request) {
+        return getApiClient().getSignPendingIntent(buildSignOptions(request));
+    }
+
+    @Override
+    public void register(Ceremony ceremony, RegisterRequest request) {
+        PublicKeyCredentialCreationOptions options = buildRegisterOptions(request);
+        ceremony.mark(CeremonyMetrics.PHASE_BUILD);
+        launch(ceremony, getApiClient().getRegisterPendingIntent(options));
+    }
+
+    @Override
+    public void sign(Ceremony ceremony, SignRequest request) {
+        PublicKeyCredentialRequestOptions options = buildSignOptions(request);
+        ceremony.mark(CeremonyMetrics.PHASE_BUILD);
+        launch(ceremony, getApiClient().getSignPendingIntent(options));
+    }
+
+    /**
+     * Descriptors are immutable, so they are built once per cached credential
+     * list and reused by every request that sends the same list.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<PublicKeyCredentialDescriptor> toDescriptors(CredentialList credentials) {
+        List<PublicKeyCredentialDescriptor> cached = (List<PublicKeyCredentialDescriptor>) credentials.getDescriptors();
+        if (cached != null) {
+            return cached;
+        }
+
+        ArrayList<PublicKeyCredentialDescriptor> descriptors = new ArrayList<>(credentials.size());
+        for (byte[] credentialId : credentials.ids) {
+            descriptors.add(
+                    new PublicKeyCredentialDescriptor(
+                            PublicKeyCredentialType.PUBLIC_KEY.toString(),
+                            credentialId,
+                            null
+                    )
+            );
+        }
+        List<PublicKeyCredentialDescriptor> shared = Collections.unmodifiableList(descriptors);
+        credentials.setDescriptors(shared);
+        return shared;
+    }
+
+    private static PublicKeyCredentialCreationOptions buildRegisterOptions(RegisterRequest request) {
+        // All the option parameters should come from the Relying Party / server
+        ArrayList<PublicKeyCredentialParameters> parameters = new ArrayList<>(request.algorithms.size());
+        for (RequestOptions.Algorithm algorithm : request.algorithms) {
+            parameters.add(new PublicKeyCredentialParameters(algorithm.type, algorithm.alg));
+        }
+
+        AttestationConveyancePreference attestationPreference = AttestationConveyancePreference.INDIRECT;
+        if (RequestOptions.ATTESTATION_NONE.equals(request.attestationPreference)) {
+            attestationPreference = AttestationConveyancePreference.NONE;
+        } else if (RequestOptions.ATTESTATION_DIRECT.equals(request.attestationPreference)) {
+            attestationPreference = AttestationConveyancePreference.DIRECT;
+        }
+
+        PublicKeyCredentialRpEntity rpEntity = request.rpId == null
+                ? null
+                : new PublicKeyCredentialRpEntity(request.rpId, request.rpName, request.rpIcon);
+        PublicKeyCredentialUserEntity currentUser = request.userId == null
+                ? null
+                : new PublicKeyCredentialUserEntity(request.userId, request.userName, request.userIcon, request.userDisplayName);
+
+        PublicKeyCredentialCreationOptions.Builder optionsBuilder = new PublicKeyCredentialCreationOptions.Builder()
+                .setRp(rpEntity)
+                .setUser(currentUser)
+                .setExcludeList(toDescriptors(request.excludeList))
+                .setAttestationConveyancePreference(attestationPreference)
+                .setChallenge(request.challenge)
+                .setParameters(parameters)
+                .setTimeoutSeconds(request.timeoutSeconds);
+
+        if (request.attachment != null) {
+            Attachment attachmentType = RequestOptions.ATTACHMENT_PLATFORM.equals(request.attachment)
+                    ? Attachment.PLATFORM
+                    : Attachment.CROSS_PLATFORM;
+            AuthenticatorSelectionCriteria authenticatorSelection = new AuthenticatorSelectionCriteria.Builder()
+                    .setAttachment(attachmentType)
+                    .build();
+            optionsBuilder.setAuthenticatorSelection(authenticatorSelection);
+        }
+
+        return optionsBuilder.build();
+    }
+
+    private static PublicKeyCredentialRequestOptions buildSignOptions(SignRequest request) {
+        PublicKeyCredentialRequestOptions.Builder optionsBuilder = new PublicKeyCredentialRequestOptions.Builder()
+            .setRpId(request.rpId)
+            .setAllowList(toDescriptors(request.allowList))
+            .setChallenge(request.challenge)
+            .setTimeoutSeconds(request.timeoutSeconds);
+
+        if (request.appId != null && !request.appId.isEmpty()) {
+            optionsBuilder.setAuthenticationExtensions(
+                new AuthenticationExtensions.Builder()
+                    .setFido2Extension(new FidoAppIdExtension(request.appId))
+                    .build()
+            );
+        }
+
+        return optionsBuilder.build();
+    }
+
+    private void launch(final Ceremony ceremony, Task<PendingIntent> fido2PendingIntentTask) {
+        fido2PendingIntentTask.addOnSuccessListener(
+                executor,
+                new OnSuccessListener<PendingIntent>() {
+                    @Override
+                    public void onSuccess(PendingIntent fido2PendingIntent) {
+                        if (fido2PendingIntent == null) {
+                            ceremony.reject(CeremonyMetrics.OUTCOME_TASK_FAILURE, "unknown",
+                                    "No pending intent returned by Fido2 API");
+                            return;
+                        }
+                        ceremony.mark(CeremonyMetrics.PHASE_PENDING_INTENT);
+                        startIntentSender(ceremony, fido2PendingIntent);
+                    }
+                }
+        );
+
+        fido2PendingIntentTask.addOnFailureListener(
+                executor,
+                new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        // Fail
+                        ceremony.reject(CeremonyMetrics.OUTCOME_TASK_FAILURE, "unknown", e.getLocalizedMessage());
+                    }
+                }
+        );
+    }
+
+    void startIntentSender(final Ceremony ceremony, final PendingIntent fido2PendingIntent) {
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                startIntentSenderOnUiThread(ceremony, fido2PendingIntent);
+            }
+        });
+    }
+
+    private void startIntentSenderOnUiThread(Ceremony ceremony, PendingIntent fido2PendingIntent) {
+        if (ceremony.isSettled()) {
+            // Timed out while waiting for the main thread
+            return;
+        }
+
+        Activity activity = this.reactContext.getCurrentActivity();
+        if (activity == null) {
+            // Nothing would ever deliver the result, so fail now instead of waiting for the watchdog
+            ceremony.reject(CeremonyMetrics.OUTCOME_LAUNCH_FAILURE, E_NO_ACTIVITY,
+                    "No activity to launch the Fido2 request from");
+            return;
+        }
+
+        // Start a FIDO2 request with the request code owned by this ceremony.
+        try {
+            activity.startIntentSenderForResult(
+                    fido2PendingIntent.getIntentSender(),
+                    ceremony.getRequestCode(),
+                    null, // fillInIntent,
+                    0, // flagsMask,
+                    0, // flagsValue,
+                    0  //extraFlags
+            );
+        } catch (IntentSender.SendIntentException e) {
+            ceremony.reject(CeremonyMetrics.OUTCOME_LAUNCH_FAILURE, E_LAUNCH_FAILED, e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Deserializes the result and settles the ceremony. Called off the main
+     * thread, on the worker executor.
+     */
+    void onActivityResult(Ceremony ceremony, int resultCode, Intent intent) {
+        ceremony.mark(CeremonyMetrics.PHASE_USER);
+        Tracer.trace(Tracer.INFO, Tracer.EVENT_ACTIVITY_RESULT, ceremony.id, resultCode);
+        if (ceremony.type == Ceremony.SIGN) {
+            onSignResult(ceremony, resultCode, intent);
+        } else {
+            onRegisterResult(ceremony, resultCode, intent);
+        }
+
+        // Results without a credential or an error still have to free the request code
+        ceremony.reject("unknown", "No response from Fido2 Activity");
+    }
+
+    private void onSignResult(Ceremony ceremony, int resultCode, Intent intent) {
+        if (resultCode == Activity.RESULT_CANCELED) {
+            ceremony.reject(CeremonyMetrics.OUTCOME_CANCELLED, E_SIGN_CANCELLED, "Sign was cancelled");
+        } else if (resultCode == Activity.RESULT_OK) {
+            if (intent.hasExtra(Fido.FIDO2_KEY_ERROR_EXTRA)) {
+                AuthenticatorErrorResponse authenticatorErrorResponse =
+                        AuthenticatorErrorResponse.deserializeFromBytes(
+                                intent.getByteArrayExtra(Fido.FIDO2_KEY_ERROR_EXTRA));
+                Tracer.trace(Tracer.ERROR, Tracer.EVENT_AUTHENTICATOR_ERROR, ceremony.id,
+                        authenticatorErrorResponse.getErrorCodeAsInt());
+                ceremony.reject(CeremonyMetrics.OUTCOME_AUTHENTICATOR_ERROR, E_AUTHENTICATOR_ERROR,
+                        authenticatorErrorResponse.getErrorMessage());
+            } else if (intent.hasExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA)) {
+                PublicKeyCredential publicKeyCredential =
+                        PublicKeyCredential.deserializeFromBytes(
+                                intent.getByteArrayExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA));
+                AuthenticatorAssertionResponse signedData =
+                        (AuthenticatorAssertionResponse) publicKeyCredential.getResponse();
+                AuthenticationExtensionsClientOutputs extensionOutputs = publicKeyCredential.getClientExtensionResults();
+                byte[] extensionOutputsBytes = extensionOutputs != null ? extensionOutputs.serializeToBytes() : null;
+                ceremony.resolve(new Assertion(
+                        signedData.getKeyHandle(),
+                        signedData.getClientDataJSON(),
+                        signedData.getAuthenticatorData(),
+                        signedData.getSignature(),
+                        signedData.getUserHandle(),
+                        extensionOutputsBytes
+                ));
+            }
+        }
+    }
+
+    private void onRegisterResult(Ceremony ceremony, int resultCode, Intent intent) {
+        if (resultCode == Activity.RESULT_CANCELED) {
+            ceremony.reject(CeremonyMetrics.OUTCOME_CANCELLED, E_REGISTER_CANCELLED, "Register was cancelled");
+        } else if (resultCode == Activity.RESULT_OK) {
+            if (intent.hasExtra(Fido.FIDO2_KEY_ERROR_EXTRA)) {
+                AuthenticatorErrorResponse authenticatorErrorResponse =
+                        AuthenticatorErrorResponse.deserializeFromBytes(
+                                intent.getByteArrayExtra(Fido.FIDO2_KEY_ERROR_EXTRA));
+                Tracer.trace(Tracer.ERROR, Tracer.EVENT_AUTHENTICATOR_ERROR, ceremony.id,
+                        authenticatorErrorResponse.getErrorCodeAsInt());
+                ceremony.reject(CeremonyMetrics.OUTCOME_AUTHENTICATOR_ERROR, E_AUTHENTICATOR_ERROR,
+                        authenticatorErrorResponse.getErrorMessage());
+                return;
+            }
+
+            if (intent.hasExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA)) {
+                // getByteArrayExtra returns the Bundle's own array, not a copy. What used to cost
+                // here was a second read of the extra to log it as Base64.
+                byte[] credentialBytes = intent.getByteArrayExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA);
+                PublicKeyCredential publicKeyCredential = PublicKeyCredential.deserializeFromBytes(credentialBytes);
+                AuthenticatorAttestationResponse signedData =
+                        (AuthenticatorAttestationResponse) publicKeyCredential.getResponse();
+                ceremony.resolve(new Attestation(
+                        signedData.getKeyHandle(),
+                        signedData.getClientDataJSON(),
+                        signedData.getAttestationObject(),
+                        signedData.getTransports()
+                ));
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.rnfido;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cache of Fido2 pending intents fetched ahead of the user's tap. Entries are
+ * single use, expire together with their challenge and are only valid for the
+ * activity that was in front when they were prepared.
+ */
+class PreparedCeremonies {
+
+    static final class Entry {
+        final int type;
+        final PendingIntent pendingIntent;
+        final double timeoutSeconds;
+        /** Where a successful result is filed in the credential index. */
+        final String rpId;
+        final byte[] userId;
+        final long expiresAt;
+        final WeakReference<Activity> activity;
+
+        Entry(int type, PendingIntent pendingIntent, double timeoutSeconds, String rpId, byte[] userId,
+              long expiresAt, Activity activity) {
+            this.type = type;
+            this.pendingIntent = pendingIntent;
+            this.timeoutSeconds = timeoutSeconds;
+            this.rpId = rpId;
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+            this.activity = new WeakReference<>(activity);
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long nextHandle = 1;
+
+    PreparedCeremonies(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Stores a pending intent and returns the handle to launch it with, or
+     * null when the cache is full of live entries. The entry lives as long as
+     * the request's own timeout.
+     */
+    synchronized String put(int type, PendingIntent pendingIntent, double timeoutSeconds, String rpId, byte[] userId,
+                            Activity activity) {
+        long now = SystemClock.elapsedRealtime();
+        evictExpired(now);
+        if (entries.size() >= maxEntries) {
+            return null;
+        }
+        String handle = (type == Ceremony.SIGN ? "sign-" : "register-") + nextHandle++;
+        long expiresAt = now + (long) (timeoutSeconds * 1000);
+        entries.put(handle, new Entry(type, pendingIntent, timeoutSeconds, rpId, userId, expiresAt, activity));
+        return handle;
+    }
+
+    /**
+     * Removes and returns the entry for the handle if it is still usable from
+     * the given activity.
+     */
+    synchronized Entry take(String handle, Activity activity) {
+        Entry entry = entries.remove(handle);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= SystemClock.elapsedRealtime()
+                || activity == null || entry.activity.get() != activity) {
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized boolean remove(String handle) {
+        return entries.remove(handle) != null;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.expiresAt <= now || entry.activity.get() == null) {
+                iterator.remove();
+            }
+        }
+    }
+}
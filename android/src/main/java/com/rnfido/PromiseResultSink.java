@@ -0,0 +1,38 @@
+package com.rnfido;
+
+import com.facebook.react.bridge.Promise;
+
+/**
+ * Settles a bridge promise, marshalling assertions and attestations into the
+ * map shape the JS layer expects.
+ */
+class PromiseResultSink implements ResultSink {
+
+    private final Promise promise;
+    private final ResultMarshaller marshaller;
+
+    PromiseResultSink(Promise promise, ResultMarshaller marshaller) {
+        this.promise = promise;
+        this.marshaller = marshaller;
+    }
+
+    @Override
+    public void resolve(Object value) {
+        if (value instanceof Assertion) {
+            WritableMapResultWriter response = new WritableMapResultWriter();
+            marshaller.writeAssertion((Assertion) value, response);
+            promise.resolve(response.map);
+        } else if (value instanceof Attestation) {
+            WritableMapResultWriter response = new WritableMapResultWriter();
+            marshaller.writeAttestation((Attestation) value, response);
+            promise.resolve(response.map);
+        } else {
+            promise.resolve(value);
+        }
+    }
+
+    @Override
+    public void reject(String code, String message) {
+        promise.reject(code, message);
+    }
+}
@@ -2,20 +2,26 @@ package com.rnfido;
 
 import android.app.Activity;
 import android.app.PendingIntent;
+import android.content.ComponentCallbacks;
 import android.content.Intent;
-import android.content.IntentSender;
-import android.util.Base64;
-import android.util.Log;
+import android.content.res.Configuration;
+import android.os.Build;
 
 import androidx.annotation.NonNull;
 
-import java.util.Arrays;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.facebook.react.bridge.ActivityEventListener;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.BaseActivityEventListener;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
@@ -24,139 +30,125 @@ import com.facebook.react.bridge.Promise;
 
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableMap;
-import com.google.android.gms.fido.fido2.Fido2ApiClient;
-import com.google.android.gms.fido.fido2.Fido2PendingIntent;
-import com.google.android.gms.fido.fido2.api.common.Attachment;
-import com.google.android.gms.fido.fido2.api.common.AttestationConveyancePreference;
-import com.google.android.gms.fido.fido2.api.common.AuthenticationExtensions;
-import com.google.android.gms.fido.fido2.api.common.AuthenticatorAssertionResponse;
-import com.google.android.gms.fido.fido2.api.common.AuthenticatorAttestationResponse;
-import com.google.android.gms.fido.fido2.api.common.AuthenticatorErrorResponse;
-import com.google.android.gms.fido.fido2.api.common.AuthenticatorSelectionCriteria;
-import com.google.android.gms.fido.fido2.api.common.AuthenticationExtensionsClientOutputs;
-import com.google.android.gms.fido.fido2.api.common.EC2Algorithm;
-import com.google.android.gms.fido.fido2.api.common.FidoAppIdExtension;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredential;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialDescriptor;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialParameters;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialType;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialRequestOptions;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialRpEntity;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialCreationOptions;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialUserEntity;
-import com.google.android.gms.fido.fido2.api.common.PublicKeyCredentialRpEntity;
-import com.google.android.gms.fido.Fido;
-import com.google.android.gms.fido.fido2.api.common.TokenBinding;
-import com.google.android.gms.fido.fido2.api.common.UserVerificationMethodExtension;
-import com.google.android.gms.fido.u2f.api.common.ResponseData;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 
-import org.json.JSONObject;
-
 public class RNFido2Module extends ReactContextBaseJavaModule {
 
     private final ReactApplicationContext reactContext;
-    private static final int REQUEST_CODE_REGISTER = 110;
-    private static final int REQUEST_CODE_SIGN = 111;
-    private static final String E_SIGN_CANCELLED = "E_SIGN_CANCELLED";
-    private static final String E_REGISTER_CANCELLED = "E_REGISTER_CANCELLED";
-    private static final String E_AUTHENTICATOR_ERROR = "E_AUTHENTICATOR_ERROR";
-    private static final String TAG = "RNFido2";
-
-    private Promise mSignPromise;
-    private Promise mRegisterPromise;
-    private PublicKeyCredentialRpEntity rpEntity;
-    private PublicKeyCredentialUserEntity currentUser;
-    private String appIcon;
-    private String rpId;
-    private String appId;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    private static final int DEFAULT_MAX_QUEUED = 32;
+    private static final String E_PREPARED_EXPIRED = "E_PREPARED_EXPIRED";
+    private static final String E_INVALID_RESPONSE = "E_INVALID_RESPONSE";
+    private static final String E_DESTROYED = "E_DESTROYED";
+    private static final int MAX_PREPARED = 16;
+    // Slack on top of the request timeout before the watchdog gives up on the platform UI
+    private static final long WATCHDOG_GRACE_MILLIS = 5000;
+    private static final int CREDENTIAL_CACHE_ENTRIES = 32;
+    private static final long CREDENTIAL_CACHE_BYTES = 256 * 1024;
+    private static final String CREDENTIAL_INDEX_FILE = "rnfido2-credentials.idx";
+    private static final int MAX_INDEXED_CREDENTIALS = 256;
+    // Bounds how stale the capabilities can get, e.g. across a Play Services update
+    private static final long CAPABILITIES_TTL_NANOS = TimeUnit.MINUTES.toNanos(10);
+    static final String METRICS_EVENT = "RNFido2Metrics";
+
+    private final PlayServicesCredentialClient mClient;
+    private final CeremonyEngine mEngine;
+    private final CredentialIndex mCredentialIndex;
+    private final CeremonyRegistry mCeremonies = new CeremonyRegistry(DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED);
+    private final PreparedCeremonies mPrepared = new PreparedCeremonies(MAX_PREPARED);
+    private final CredentialListCache mCredentialCache =
+            new CredentialListCache(CREDENTIAL_CACHE_ENTRIES, CREDENTIAL_CACHE_BYTES);
+    // Builds requests, decodes results and runs the watchdog. A single thread keeps
+    // work for one ceremony in order and off both the UI and the bridge threads.
+    private final ScheduledThreadPoolExecutor mWorker = newWorker();
+    private final AtomicInteger mCapabilitiesGeneration = new AtomicInteger();
+    private volatile Boolean mPlatformAuthenticatorAvailable;
+    private volatile long mCapabilitiesCachedAt;
+    // Set when one of our own ceremonies returned, so the resume that follows keeps the cache
+    private volatile boolean mReturningFromCeremony;
+    private volatile boolean mBase64Url;
+    // Replaced wholesale on every change; writers synchronize on the module
+    private volatile SessionConfig mSession = SessionConfig.EMPTY;
+
+    private final LifecycleEventListener mLifecycleEventListener = new LifecycleEventListener() {
+        @Override
+        public void onHostResume() {
+            if (mReturningFromCeremony) {
+                // Back from our own FIDO sheet rather than from the background
+                mReturningFromCeremony = false;
+                return;
+            }
+            // Biometrics may have been enrolled or removed while we were in the background
+            invalidateCapabilities();
+        }
 
-    private final ActivityEventListener mActivityEventListener = new BaseActivityEventListener() {
         @Override
-        public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent intent) {
-            super.onActivityResult(activity, requestCode, resultCode, intent);
+        public void onHostPause() {
+        }
 
-            if (requestCode == REQUEST_CODE_SIGN) {
-                if (mSignPromise != null) {
-                    if (resultCode == Activity.RESULT_CANCELED) {
-                        mSignPromise.reject(E_SIGN_CANCELLED, "Sign was cancelled");
-                    } else if (resultCode == Activity.RESULT_OK) {
-                        if (intent.hasExtra(Fido.FIDO2_KEY_ERROR_EXTRA)) {
-                            AuthenticatorErrorResponse authenticatorErrorResponse =
-                                    AuthenticatorErrorResponse.deserializeFromBytes(
-                                            intent.getByteArrayExtra(Fido.FIDO2_KEY_ERROR_EXTRA));
-                            Log.e(TAG, "FIDO2_KEY_ERROR_EXTRA Security Key: " + authenticatorErrorResponse.getErrorMessage());
-                            mSignPromise.reject(E_AUTHENTICATOR_ERROR, authenticatorErrorResponse.getErrorMessage());
-                        } else if (intent.hasExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA)) {
-                            Log.i(TAG, "Received response from Security Key");
-                            PublicKeyCredential publicKeyCredential =
-                                    PublicKeyCredential.deserializeFromBytes(
-                                            intent.getByteArrayExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA));
-                            AuthenticatorAssertionResponse signedData =
-                                    (AuthenticatorAssertionResponse) publicKeyCredential.getResponse();
-                            AuthenticationExtensionsClientOutputs extensionOutputs = publicKeyCredential.getClientExtensionResults();
-                            byte[] extensionOutputsBytes = null;
-                            WritableMap response = Arguments.createMap();
-                            byte[] userHandle = signedData.getUserHandle();
-                            if (extensionOutputs != null) {
-                                extensionOutputsBytes = extensionOutputs.serializeToBytes();
-                                if (extensionOutputsBytes != null) {
-                                    response.putString("extensions", Base64.encodeToString(extensionOutputsBytes, Base64.URL_SAFE));
-                                }
-                            }
-                            response.putString("clientDataJSON", Base64.encodeToString(signedData.getClientDataJSON(), Base64.URL_SAFE));
-                            response.putString("attestationObject", Base64.encodeToString(signedData.getAuthenticatorData(), Base64.URL_SAFE));
-                            response.putString("id", Base64.encodeToString(signedData.getKeyHandle(), Base64.URL_SAFE));
-                            response.putString("rawId", Base64.encodeToString(signedData.getKeyHandle(), Base64.URL_SAFE));
-                            response.putString("signature", Base64.encodeToString(signedData.getSignature(), Base64.URL_SAFE));
-                            if (userHandle != null) {
-                                response.putString("userHandle", Base64.encodeToString(userHandle, Base64.URL_SAFE));
-                            }
-                            mSignPromise.resolve(response);
-                        }
-                    }
-                }
-                mSignPromise = null;
+        @Override
+        public void onHostDestroy() {
+            // Prepared intents are tied to the activity they were fetched for
+            mPrepared.clear();
+        }
+    };
+
+    private final ComponentCallbacks mComponentCallbacks = new ComponentCallbacks() {
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            invalidateCapabilities();
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    };
+
+    private final CeremonyMetrics.Listener mMetricsEmitter = new CeremonyMetrics.Listener() {
+        @Override
+        public void onCeremonyFinished(int type, int outcome, long[] phaseNanos) {
+            if (!reactContext.hasActiveCatalystInstance()) {
+                return;
             }
+            WritableMapResultWriter phases = new WritableMapResultWriter();
+            CeremonyMetrics.writePhases(phaseNanos, phases);
+
+            WritableMap event = Arguments.createMap();
+            event.putString("type", CeremonyMetrics.TYPE_NAMES[type]);
+            event.putString("outcome", CeremonyMetrics.OUTCOME_NAMES[outcome]);
+            event.putMap("phases", phases.map);
+            reactContext
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                    .emit(METRICS_EVENT, event);
+        }
+    };
 
-            if (requestCode == REQUEST_CODE_REGISTER) {
-                Log.i(TAG, "Received pending response from Fido2 Activity");
-                if (mRegisterPromise != null) {
-                    Log.i(TAG, "Received confirmed response from Fido2 Activity");
-                    if (resultCode == Activity.RESULT_CANCELED) {
-                        mRegisterPromise.reject(E_REGISTER_CANCELLED, "Register was cancelled");
-                    } else if (resultCode == Activity.RESULT_OK) {
-                        if (intent.hasExtra(Fido.FIDO2_KEY_ERROR_EXTRA)) {
-                            AuthenticatorErrorResponse authenticatorErrorResponse =
-                                    AuthenticatorErrorResponse.deserializeFromBytes(
-                                            intent.getByteArrayExtra(Fido.FIDO2_KEY_ERROR_EXTRA));
-                            Log.e(TAG, "FIDO2_KEY_ERROR_EXTRA Security Key: " + authenticatorErrorResponse.getErrorMessage());
-                            mRegisterPromise.reject(E_AUTHENTICATOR_ERROR, authenticatorErrorResponse.getErrorMessage());
-                            return;
-                        }
+    private final ActivityEventListener mActivityEventListener = new BaseActivityEventListener() {
+        @Override
+        public void onActivityResult(Activity activity, int requestCode, final int resultCode, final Intent intent) {
+            super.onActivityResult(activity, requestCode, resultCode, intent);
+            if (!CeremonyRegistry.isRequestCode(requestCode)) {
+                return;
+            }
+            // Delivered just before the host activity resumes
+            mReturningFromCeremony = true;
 
-                        if (intent.hasExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA)) {
-                            Log.e(TAG, "Received response from Security Key: " + Base64.encode(intent.getByteArrayExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA), Base64.DEFAULT));
-                            PublicKeyCredential publicKeyCredential =
-                                    PublicKeyCredential.deserializeFromBytes(
-                                            intent.getByteArrayExtra(Fido.FIDO2_KEY_CREDENTIAL_EXTRA));
-                            AuthenticatorAttestationResponse signedData =
-                                    (AuthenticatorAttestationResponse) publicKeyCredential.getResponse();
-                            WritableMap response = Arguments.createMap();
-                            response.putString("clientDataJSON", Base64.encodeToString(signedData.getClientDataJSON(), Base64.URL_SAFE));
-                            response.putString("attestationObject", Base64.encodeToString(signedData.getAttestationObject(), Base64.URL_SAFE));
-                            response.putString("id", Base64.encodeToString(signedData.getKeyHandle(), Base64.URL_SAFE));
-                            response.putString("rawId", Base64.encodeToString(signedData.getKeyHandle(), Base64.URL_SAFE));
-                            mRegisterPromise.resolve(response);
-                            return;
+            final Ceremony ceremony = mCeremonies.get(requestCode);
+            if (ceremony != null) {
+                mWorker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            mClient.onActivityResult(ceremony, resultCode, intent);
+                        } catch (RuntimeException e) {
+                            // A result that does not deserialize must still settle the ceremony
+                            ceremony.reject(CeremonyMetrics.OUTCOME_ERROR, E_INVALID_RESPONSE, e.getMessage());
                         }
                     }
-                } else {
-                    Log.i(TAG, "Register promise is null");
-                }
-                mRegisterPromise = null;
+                });
             }
         }
     };
@@ -164,8 +156,58 @@ public class RNFido2Module extends ReactContextBaseJavaModule {
     public RNFido2Module(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        this.mClient = new PlayServicesCredentialClient(reactContext, mWorker);
+        this.mEngine = new CeremonyEngine(mCeremonies, mClient);
+        this.mCredentialIndex = new CredentialIndex(
+                new File(reactContext.getFilesDir(), CREDENTIAL_INDEX_FILE), MAX_INDEXED_CREDENTIALS);
+        mEngine.setCredentialIndex(mCredentialIndex, mWorker);
+        mCeremonies.setWatchdog(new CeremonyWatchdog(mWorker, WATCHDOG_GRACE_MILLIS));
+        // Ceremonies settle on the main thread when a launch fails, and launchPrepared
+        // submits from the bridge thread; the next one is still built on the worker.
+        mCeremonies.setStartExecutor(mWorker);
 
         reactContext.addActivityEventListener(mActivityEventListener);
+        reactContext.addLifecycleEventListener(mLifecycleEventListener);
+        reactContext.getApplicationContext().registerComponentCallbacks(mComponentCallbacks);
+
+        // Read the index now so the first sign-in doesn't wait for the disk
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCredentialIndex.load();
+            }
+        });
+    }
+
+    private static ScheduledThreadPoolExecutor newWorker() {
+        ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RNFido2-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Play Services may still deliver task callbacks after the module is destroyed;
+        // their ceremonies were rejected by then, so the callbacks are dropped.
+        worker.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Watchdog checks are cancelled when their ceremony settles; drop them from the queue
+            // right away. Older releases keep them queued as no-ops until their deadline.
+            worker.setRemoveOnCancelPolicy(true);
+        }
+        return worker;
+    }
+
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        mCeremonies.metrics.setListener(null);
+        mCeremonies.setWatchdog(null);
+        mCeremonies.rejectAll(E_DESTROYED, "The FIDO2 module was destroyed");
+        mWorker.shutdownNow();
+        mCredentialIndex.close();
+        reactContext.getApplicationContext().unregisterComponentCallbacks(mComponentCallbacks);
     }
 
     @Override
@@ -175,223 +217,388 @@ public class RNFido2Module extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void setAppIcon(String icon, Promise promise) {
-        appIcon = icon;
-        promise.resolve(icon);
-    }
-
-    @ReactMethod
-    public void setRpId(String id, String name, String icon, Promise promise) {
-        if (icon == null || icon.isEmpty()) {
-            icon = appIcon;
+    public void setConcurrency(int maxInFlight, int maxQueued, Promise promise) {
+        try {
+            mCeremonies.setLimits(maxInFlight, maxQueued);
+            promise.resolve(true);
+        } catch (IllegalArgumentException e) {
+            promise.reject("concurrency", e.getMessage());
         }
-        rpId = id;
-        rpEntity = new PublicKeyCredentialRpEntity(rpId, name, icon);
-        promise.resolve(id);
     }
 
-    @ReactMethod
-    public void setAppId(String url, Promise promise) {
-        appId = url;
-        promise.resolve(appId);
+    /**
+     * In base64url wire mode results are encoded in the canonical unpadded
+     * form so JS can pass them through untouched.
+     */
+    private ResultSink sinkFor(Promise promise) {
+        return new PromiseResultSink(promise, mBase64Url ? ResultMarshaller.BASE64URL : ResultMarshaller.PADDED);
     }
 
     @ReactMethod
-    public void setUser(String id, String name, String icon, String displayName, Promise promise) {
-        currentUser = new PublicKeyCredentialUserEntity(Base64.decode(id, Base64.DEFAULT), name, icon, displayName);
-        promise.resolve(true);
+    public void setBase64Url(boolean enabled, Promise promise) {
+        mBase64Url = enabled;
+        promise.resolve(enabled);
     }
 
     @ReactMethod
-    public void registerFido2(ReadableArray keyHandles, String challenge, ReadableArray params, ReadableMap requestOptions, Promise promise) {
-        mRegisterPromise = promise;
-
-        // All the option parameters should come from the Relying Party / server
-        ArrayList<PublicKeyCredentialDescriptor> existingKeys = new ArrayList<>();
-
-        for (int i = 0; i < keyHandles.size(); i++) {
-            String keyHandle = keyHandles.getString(i);
-            byte[] keyHandleByte = Base64.decode(keyHandle, Base64.DEFAULT);
-            existingKeys.add(
-                    new PublicKeyCredentialDescriptor(
-                            PublicKeyCredentialType.PUBLIC_KEY.toString(),
-                            keyHandleByte,
-                            null
-                    )
-            );
-        }
-
-        ArrayList<PublicKeyCredentialParameters> parameters = new ArrayList<>();
-        for (int i = 0; i < params.size(); i++) {
-            ReadableMap param = params.getMap(i);
-            String type = param.getString("type");
-            int alg = param.getInt("alg");
-            // TODO: this is a hack, use KEY_PARAMETERS_ALGORITHM = "alg"
-            PublicKeyCredentialParameters parameter =
-                    new PublicKeyCredentialParameters(type == null ? "public-key" : type, alg);
-            parameters.add(parameter);
-        }
-
-        Double timeout = requestOptions.getDouble("timeout");
-
-        if (timeout == null || timeout == 0d) {
-            timeout = 60d;
+    public void getMetrics(boolean reset, Promise promise) {
+        WritableMapResultWriter metrics = new WritableMapResultWriter();
+        mCeremonies.metrics.write(metrics);
+        if (reset) {
+            mCeremonies.metrics.reset();
         }
+        promise.resolve(metrics.map);
+    }
 
-        String attestationPreference = requestOptions.getString("attestationPreference");
+    /**
+     * Streams one {@link #METRICS_EVENT} per finished ceremony with its phase
+     * timings, for apps that ship their own telemetry.
+     */
+    @ReactMethod
+    public void setMetricsEvents(boolean enabled, Promise promise) {
+        mCeremonies.metrics.setListener(enabled ? mMetricsEmitter : null);
+        promise.resolve(enabled);
+    }
 
-        if (attestationPreference == null || attestationPreference.equals("")) {
-            attestationPreference = "none";
+    /**
+     * 0 turns tracing off; 1 to 3 keep errors, ceremony events and phase
+     * timings respectively.
+     */
+    @ReactMethod
+    public void setTraceLevel(int level, Promise promise) {
+        try {
+            Tracer.setLevel(level);
+            promise.resolve(level);
+        } catch (IllegalArgumentException e) {
+            promise.reject("trace", e.getMessage());
         }
+    }
 
-        String authenticatorType = requestOptions.getString("authenticatorType");
-        Attachment attachmentType = null;
-        AuthenticatorSelectionCriteria.Builder authenticatorSelectionBuilder = new AuthenticatorSelectionCriteria.Builder();
+    @ReactMethod
+    public void dumpTrace(Promise promise) {
+        promise.resolve(Tracer.dump());
+    }
 
-        if (authenticatorType.toLowerCase().equals("crossplatform")) {
-            attachmentType = Attachment.CROSS_PLATFORM;
-        }
+    private void invalidateCapabilities() {
+        mCapabilitiesGeneration.incrementAndGet();
+        mPlatformAuthenticatorAvailable = null;
+    }
 
-        if (authenticatorType.toLowerCase().equals("platform")) {
-            attachmentType = Attachment.PLATFORM;
-        }
+    private static WritableMap capabilitiesToMap(boolean platformAuthenticator) {
+        WritableMap capabilities = Arguments.createMap();
+        capabilities.putBoolean("platformAuthenticator", platformAuthenticator);
+        return capabilities;
+    }
 
-        PublicKeyCredentialCreationOptions.Builder optionsBuilder = new PublicKeyCredentialCreationOptions.Builder()
-                .setRp(rpEntity)
-                .setUser(currentUser)
-                .setExcludeList(existingKeys)
-                .setAttestationConveyancePreference(
-                        attestationPreference.toLowerCase().equals("none") ? AttestationConveyancePreference.NONE : attestationPreference.toLowerCase().equals("direct") ? AttestationConveyancePreference.DIRECT : AttestationConveyancePreference.INDIRECT
-                )
-                .setChallenge(Base64.decode(challenge, Base64.DEFAULT))
-                .setParameters(parameters)
-                .setTimeoutSeconds(timeout);
-
-        if (attachmentType != null) {
-            authenticatorSelectionBuilder.setAttachment(attachmentType);
-
-            AuthenticatorSelectionCriteria authenticatorSelection = authenticatorSelectionBuilder.build();
-            optionsBuilder.setAuthenticatorSelection(authenticatorSelection);
+    @ReactMethod
+    public void getCapabilities(final Promise promise) {
+        Boolean available = mPlatformAuthenticatorAvailable;
+        if (available != null && mCeremonies.clock.nanoTime() - mCapabilitiesCachedAt < CAPABILITIES_TTL_NANOS) {
+            promise.resolve(capabilitiesToMap(available));
+            return;
         }
 
-        PublicKeyCredentialCreationOptions options = optionsBuilder.build();
-
-        Fido2ApiClient fido2ApiClient = Fido.getFido2ApiClient(this.reactContext);
-        Task<PendingIntent> fido2PendingIntentTask = fido2ApiClient.getRegisterPendingIntent(options);
-        final Activity activity = this.reactContext.getCurrentActivity();
-        fido2PendingIntentTask.addOnSuccessListener(
-                new OnSuccessListener<PendingIntent>() {
+        final int generation = mCapabilitiesGeneration.get();
+        Task<Boolean> task = mClient.getApiClient().isUserVerifyingPlatformAuthenticatorAvailable();
+        task.addOnSuccessListener(
+                mWorker,
+                new OnSuccessListener<Boolean>() {
                     @Override
-                    public void onSuccess(PendingIntent fido2PendingIntent) {
-                        if (fido2PendingIntent != null) {
-                            // Start a FIDO2 sign request.
-                            try {
-                                activity.startIntentSenderForResult(
-                                        fido2PendingIntent.getIntentSender(),
-                                        REQUEST_CODE_REGISTER,
-                                        null, // fillInIntent,
-                                        0, // flagsMask,
-                                        0, // flagsValue,
-                                        0  //extraFlags
-                                );
-                            } catch (IntentSender.SendIntentException e) {
-                                Log.e(TAG, "SendIntentException: " + e);
-                                e.printStackTrace();
-                            }
+                    public void onSuccess(Boolean result) {
+                        boolean platformAuthenticator = result != null && result;
+                        // Don't cache an answer that was invalidated while the probe was running
+                        if (mCapabilitiesGeneration.get() == generation) {
+                            mCapabilitiesCachedAt = mCeremonies.clock.nanoTime();
+                            mPlatformAuthenticatorAvailable = platformAuthenticator;
                         }
+                        promise.resolve(capabilitiesToMap(platformAuthenticator));
                     }
                 }
         );
 
-        fido2PendingIntentTask.addOnFailureListener(
+        task.addOnFailureListener(
+                mWorker,
                 new OnFailureListener() {
                     @Override
                     public void onFailure(Exception e) {
-                        // Fail
-                        mRegisterPromise.reject("unknown", e.getLocalizedMessage());
-                        mRegisterPromise = null;
+                        promise.reject("unknown", e.getLocalizedMessage());
                     }
                 }
         );
     }
 
+    /**
+     * Installs a complete session in one step, replacing whatever the
+     * individual setters configured before.
+     */
     @ReactMethod
-    public void signFido2(ReadableArray keyHandles, String challenge, ReadableMap requestOptions, Promise promise) {
-        if (rpId == null || rpId.isEmpty()) {
-            promise.reject("rpId", "Please specify an RP ID");
+    public void configure(ReadableMap session, Promise promise) {
+        SessionConfig config;
+        try {
+            config = SessionConfig.EMPTY.merge(session.toHashMap());
+        } catch (RuntimeException e) {
+            // Invalid base64 in the user id or members of the wrong type
+            promise.reject("session", e.getMessage());
             return;
         }
+        synchronized (this) {
+            mSession = config;
+        }
+        promise.resolve(config.rpId);
+    }
 
-        mSignPromise = promise;
+    @ReactMethod
+    public void setAppIcon(String icon, Promise promise) {
+        synchronized (this) {
+            mSession = mSession.withAppIcon(icon);
+        }
+        promise.resolve(icon);
+    }
 
-        // All the option parameters should come from the Relying Party / server
-        ArrayList<PublicKeyCredentialDescriptor> allowedKeys = new ArrayList<PublicKeyCredentialDescriptor>();
-
-        for (int i = 0; i < keyHandles.size(); i++) {
-            String keyHandle = keyHandles.getString(i);
-            byte[] keyHandleByte = Base64.decode(keyHandle, Base64.DEFAULT);
-            allowedKeys.add(
-                    new PublicKeyCredentialDescriptor(
-                            PublicKeyCredentialType.PUBLIC_KEY.toString(),
-                            keyHandleByte,
-                            null
-                    )
-            );
+    @ReactMethod
+    public void setRpId(String id, String name, String icon, Promise promise) {
+        synchronized (this) {
+            mSession = mSession.withRp(id, name, icon);
         }
+        promise.resolve(id);
+    }
 
-        Double timeout = requestOptions.getDouble("timeout");
+    @ReactMethod
+    public void setAppId(String url, Promise promise) {
+        synchronized (this) {
+            mSession = mSession.withAppId(url);
+        }
+        promise.resolve(url);
+    }
 
-        if (timeout == null || timeout == 0d) {
-            timeout = 60d;
+    @ReactMethod
+    public void setUser(String id, String name, String icon, String displayName, Promise promise) {
+        byte[] userId;
+        try {
+            userId = Base64Codec.decode(id);
+        } catch (RuntimeException e) {
+            // Invalid base64 or a missing id; don't leave the promise pending
+            promise.reject(CeremonyRegistry.E_INVALID_REQUEST, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            mSession = mSession.withUser(userId, name, icon, displayName);
         }
+        promise.resolve(true);
+    }
+
+    /**
+     * Applies an inline {@code requestOptions.session} on top of the snapshot
+     * taken when the call arrived, for this call only.
+     */
+    @SuppressWarnings("unchecked")
+    private static SessionConfig sessionFor(SessionConfig session, Map<String, Object> requestOptions) {
+        Object inline = requestOptions.get("session");
+        if (inline instanceof Map) {
+            session = session.merge((Map<String, Object>) inline);
+        }
+        return session;
+    }
+
+    private RegisterRequest toRegisterRequest(SessionConfig session, List<Object> keyHandles, String challenge,
+                                              List<Object> params, RequestOptions options) {
+        // All the option parameters should come from the Relying Party / server
+        CredentialList existingKeys = mCredentialCache.get(keyHandles);
+        List<RequestOptions.Algorithm> parameters = RequestOptions.parseAlgorithms(params);
+
+        return new RegisterRequest(session.rpId, session.rpName, session.rpIcon, session.userId, session.userName,
+                session.userIcon, session.userDisplayName, Base64Codec.decode(challenge), existingKeys, parameters, options);
+    }
+
+    /**
+     * Without key handles the allowList comes from the credentials this
+     * device has used for the RP before.
+     */
+    private SignRequest toSignRequest(SessionConfig session, List<Object> keyHandles, String challenge, RequestOptions options) {
+        // All the option parameters should come from the Relying Party / server
+        CredentialList allowedKeys = keyHandles.isEmpty()
+                ? mCredentialIndex.allowList(session.rpId)
+                : mCredentialCache.get(keyHandles);
+
+        return new SignRequest(session.rpId, options.useAppId ? session.appId : null, Base64Codec.decode(challenge),
+                allowedKeys, options.timeoutSeconds);
+    }
+
+    @ReactMethod
+    public void registerFido2(ReadableArray keyHandles, final String challenge, ReadableArray params, ReadableMap requestOptions, final Promise promise) {
+        final long requestedAt = mCeremonies.clock.nanoTime();
+        final List<Object> handles = keyHandles.toArrayList();
+        final List<Object> algorithms = params.toArrayList();
+        final Map<String, Object> rawOptions = requestOptions.toHashMap();
+        final SessionConfig current = mSession;
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                RegisterRequest request = toRegisterRequest(sessionFor(current, rawOptions), handles, challenge, algorithms,
+                        RequestOptions.parse(rawOptions));
+                mEngine.register(request, requestedAt, sinkFor(promise));
+            }
+        });
+    }
+
+    @ReactMethod
+    public void signFido2(ReadableArray keyHandles, final String challenge, ReadableMap requestOptions, final Promise promise) {
+        final long requestedAt = mCeremonies.clock.nanoTime();
+        final List<Object> handles = keyHandles.toArrayList();
+        final Map<String, Object> rawOptions = requestOptions.toHashMap();
+        final SessionConfig current = mSession;
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                SessionConfig session = sessionFor(current, rawOptions);
+                if (!session.hasRpId()) {
+                    promise.reject("rpId", "Please specify an RP ID");
+                    return;
+                }
+
+                mEngine.sign(toSignRequest(session, handles, challenge, RequestOptions.parse(rawOptions)), requestedAt,
+                        sinkFor(promise));
+            }
+        });
+    }
+
+    /**
+     * Runs request building on the worker. The bridge arguments are converted
+     * to plain collections by the caller first, on the bridge thread.
+     */
+    private void runOnWorker(final Promise promise, final Runnable task) {
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // Malformed base64 in the challenge, a handle or the user id, arguments of
+                    // the wrong type or options the platform refuses
+                    promise.reject(CeremonyRegistry.E_INVALID_REQUEST, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops cached allow and exclude lists, e.g. after credentials were
+     * added or revoked server side.
+     */
+    @ReactMethod
+    public void invalidateCredentialCache(Promise promise) {
+        mCredentialCache.invalidate();
+        promise.resolve(true);
+    }
+
+    @ReactMethod
+    public void clearCredentialIndex(final Promise promise) {
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCredentialIndex.clear();
+                promise.resolve(true);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void prepareRegister(ReadableArray keyHandles, final String challenge, ReadableArray params, ReadableMap requestOptions, final Promise promise) {
+        final List<Object> handles = keyHandles.toArrayList();
+        final List<Object> algorithms = params.toArrayList();
+        final Map<String, Object> rawOptions = requestOptions.toHashMap();
+        final SessionConfig current = mSession;
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                RegisterRequest request = toRegisterRequest(sessionFor(current, rawOptions), handles, challenge, algorithms,
+                        RequestOptions.parse(rawOptions));
+                prepare(Ceremony.REGISTER, mClient.getRegisterPendingIntent(request), request.timeoutSeconds,
+                        request.rpId, request.userId, promise);
+            }
+        });
+    }
 
-        PublicKeyCredentialRequestOptions.Builder optionsBuilder = new PublicKeyCredentialRequestOptions.Builder()
-            .setRpId(rpId)
-            .setAllowList(allowedKeys)
-            .setChallenge(Base64.decode(challenge, Base64.DEFAULT))
-            .setTimeoutSeconds(timeout);
-
-        if ((appId != null && !appId.isEmpty()) && requestOptions.getBoolean("appId")) {
-            optionsBuilder.setAuthenticationExtensions(
-                new AuthenticationExtensions.Builder()
-                    .setFido2Extension(new FidoAppIdExtension(appId))
-                    .build()
-            );
+    @ReactMethod
+    public void prepareSign(ReadableArray keyHandles, final String challenge, ReadableMap requestOptions, final Promise promise) {
+        final List<Object> handles = keyHandles.toArrayList();
+        final Map<String, Object> rawOptions = requestOptions.toHashMap();
+        final SessionConfig current = mSession;
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                SessionConfig session = sessionFor(current, rawOptions);
+                if (!session.hasRpId()) {
+                    promise.reject("rpId", "Please specify an RP ID");
+                    return;
+                }
+
+                SignRequest request = toSignRequest(session, handles, challenge, RequestOptions.parse(rawOptions));
+                prepare(Ceremony.SIGN, mClient.getSignPendingIntent(request), request.timeoutSeconds,
+                        request.rpId, null, promise);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void launchPrepared(String handle, Promise promise) {
+        long requestedAt = mCeremonies.clock.nanoTime();
+        final PreparedCeremonies.Entry entry = mPrepared.take(handle, this.reactContext.getCurrentActivity());
+        if (entry == null) {
+            promise.reject(E_PREPARED_EXPIRED, "Prepared request is unknown or has expired");
+            return;
         }
 
-        PublicKeyCredentialRequestOptions options = optionsBuilder.build();
+        ResultSink sink = mEngine.recording(sinkFor(promise), entry.rpId, entry.userId);
+        mCeremonies.submit(entry.type, requestedAt, entry.timeoutSeconds, sink, new CeremonyRegistry.Starter() {
+            @Override
+            public void start(Ceremony ceremony) {
+                // Built and fetched by prepare*; mark both so the user phase starts here
+                ceremony.mark(CeremonyMetrics.PHASE_BUILD);
+                ceremony.mark(CeremonyMetrics.PHASE_PENDING_INTENT);
+                mClient.startIntentSender(ceremony, entry.pendingIntent);
+            }
+        });
+    }
 
-        Fido2ApiClient fido2ApiClient = Fido.getFido2ApiClient(this.reactContext);
-        final Task<PendingIntent> fido2PendingIntentTask = fido2ApiClient.getSignPendingIntent(options);
+    @ReactMethod
+    public void discardPrepared(String handle, Promise promise) {
+        promise.resolve(mPrepared.remove(handle));
+    }
+
+    private void prepare(final int type, Task<PendingIntent> fido2PendingIntentTask, final double timeoutSeconds,
+                         final String rpId, final byte[] userId, final Promise promise) {
         final Activity activity = this.reactContext.getCurrentActivity();
+        if (activity == null) {
+            promise.reject(E_PREPARED_EXPIRED, "No activity to prepare the request for");
+            return;
+        }
+
         fido2PendingIntentTask.addOnSuccessListener(
+                mWorker,
                 new OnSuccessListener<PendingIntent>() {
                     @Override
                     public void onSuccess(PendingIntent fido2PendingIntent) {
-                        if (fido2PendingIntent != null) {
-                            // Start a FIDO2 sign request.
-                            try {
-                                activity.startIntentSenderForResult(fido2PendingIntent.getIntentSender(),
-                                        REQUEST_CODE_SIGN,
-                                        null, // fillInIntent,
-                                        0, // flagsMask,
-                                        0, // flagsValue,
-                                        0 //extraFlags
-                                );
-                            } catch (IntentSender.SendIntentException e) {
-                                e.printStackTrace();
-                            }
+                        if (fido2PendingIntent == null) {
+                            promise.reject("unknown", "No pending intent returned by Fido2 API");
+                            return;
+                        }
+                        String handle = mPrepared.put(type, fido2PendingIntent, timeoutSeconds, rpId, userId, activity);
+                        if (handle == null) {
+                            promise.reject(CeremonyRegistry.E_TOO_MANY_REQUESTS, "Too many prepared FIDO2 requests");
+                            return;
                         }
+                        promise.resolve(handle);
                     }
                 }
         );
 
         fido2PendingIntentTask.addOnFailureListener(
+                mWorker,
                 new OnFailureListener() {
                     @Override
                     public void onFailure(Exception e) {
-                        // Fail
-                        mSignPromise.reject("unknown", e.getMessage());
+                        promise.reject("unknown", e.getLocalizedMessage());
                     }
                 }
         );
@@ -0,0 +1,42 @@
+package com.rnfido;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * {@link ResultWriter} that builds a bridge {@link WritableMap}.
+ */
+class WritableMapResultWriter implements ResultWriter {
+
+    final WritableMap map = Arguments.createMap();
+
+    @Override
+    public ResultWriter createMap() {
+        return new WritableMapResultWriter();
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        map.putString(key, value);
+    }
+
+    @Override
+    public void putInt(String key, int value) {
+        map.putInt(key, value);
+    }
+
+    @Override
+    public void putDouble(String key, double value) {
+        map.putDouble(key, value);
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        map.putBoolean(key, value);
+    }
+
+    @Override
+    public void putMap(String key, ResultWriter value) {
+        map.putMap(key, ((WritableMapResultWriter) value).map);
+    }
+}
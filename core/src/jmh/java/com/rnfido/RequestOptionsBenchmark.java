@@ -0,0 +1,82 @@
+package com.rnfido;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-call option building for signFido2/registerFido2: decoding the
+ * allow/exclude list and mapping the algorithm parameters. Building the
+ * Play Services descriptor objects on top of this is a plain wrapper per
+ * entry and needs Android, so it is not measured here.
+ */
+@State(Scope.Benchmark)
+public class RequestOptionsBenchmark {
+
+    private static final int KEY_HANDLE_LENGTH = 64;
+
+    @Param({"1", "10", "100", "1000"})
+    public int entries;
+
+    private List<Object> keyHandles;
+    private List<Object> params;
+    private Map<String, Object> requestOptions;
+    private CredentialListCache credentialCache;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(entries);
+        keyHandles = new ArrayList<>(entries);
+        params = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            byte[] keyHandle = new byte[KEY_HANDLE_LENGTH];
+            random.nextBytes(keyHandle);
+            // index.js sends padded standard base64
+            keyHandles.add(Base64Codec.encode(keyHandle, true).replace('-', '+').replace('_', '/'));
+
+            Map<String, Object> param = new HashMap<>();
+            param.put("type", "public-key");
+            // Numbers arrive from the bridge as doubles
+            param.put("alg", (double) (i % 2 == 0 ? CoseKey.ALG_ES256 : CoseKey.ALG_RS256));
+            params.add(param);
+        }
+
+        requestOptions = new HashMap<>();
+        requestOptions.put("timeout", 60d);
+        requestOptions.put("attestationPreference", "direct");
+        requestOptions.put("authenticatorType", "crossplatform");
+        requestOptions.put("appId", Boolean.TRUE);
+
+        credentialCache = new CredentialListCache(32, Long.MAX_VALUE);
+        credentialCache.get(keyHandles);
+    }
+
+    @Benchmark
+    public List<byte[]> decodeCredentialIds() {
+        return RequestOptions.decodeCredentialIds(keyHandles);
+    }
+
+    /** Repeat login with the same allowList: digest and compare only. */
+    @Benchmark
+    public CredentialList cachedCredentialIds() {
+        return credentialCache.get(keyHandles);
+    }
+
+    @Benchmark
+    public List<RequestOptions.Algorithm> parseAlgorithms() {
+        return RequestOptions.parseAlgorithms(params);
+    }
+
+    @Benchmark
+    public RequestOptions parseRequestOptions() {
+        return RequestOptions.parse(requestOptions);
+    }
+}
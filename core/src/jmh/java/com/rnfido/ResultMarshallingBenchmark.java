@@ -0,0 +1,105 @@
+package com.rnfido;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Result marshalling done after each ceremony: Base64 encoding of every
+ * response field plus decoding of the authenticator data. Attestations carry
+ * a "packed" statement with {@code certificates} x5c entries, which is what
+ * makes them the largest payload.
+ */
+@State(Scope.Benchmark)
+public class ResultMarshallingBenchmark {
+
+    private static final int CERTIFICATE_LENGTH = 600;
+
+    @Param({"1", "10", "100", "1000"})
+    public int certificates;
+
+    private Assertion assertion;
+    private Attestation attestation;
+
+    @Setup
+    public void setUp() throws CborException {
+        final List<Object> results = new ArrayList<>();
+        ResultSink sink = new ResultSink() {
+            @Override
+            public void resolve(Object value) {
+                results.add(value);
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                throw new IllegalStateException(code + ": " + message);
+            }
+        };
+        CeremonyEngine engine = new CeremonyEngine(new CeremonyRegistry(1, 0), new FakeAuthenticator("https://example.com"));
+        RequestOptions options = RequestOptions.parse(Collections.<String, Object>emptyMap());
+        List<RequestOptions.Algorithm> algorithms =
+                Collections.singletonList(new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_ES256));
+
+        engine.register(new RegisterRequest("example.com", "Example", null, new byte[16], "user", null, "User",
+                new byte[32], CredentialList.EMPTY, algorithms, options), sink);
+        Attestation created = (Attestation) results.get(0);
+        engine.sign(new SignRequest("example.com", null, new byte[32],
+                new CredentialList(Collections.singletonList(created.keyHandle)), options.timeoutSeconds), sink);
+        assertion = (Assertion) results.get(1);
+
+        AttestationObject parsed = AttestationObject.parse(created.attestationObject);
+        byte[] authData = new byte[parsed.authDataLength];
+        System.arraycopy(created.attestationObject, parsed.authDataOffset, authData, 0, authData.length);
+
+        Random random = new Random(certificates);
+        byte[] signature = new byte[72];
+        random.nextBytes(signature);
+        CborWriter writer = new CborWriter(certificates * (CERTIFICATE_LENGTH + 3) + authData.length + 128)
+                .writeMapStart(3)
+                .writeTextString("fmt").writeTextString("packed")
+                .writeTextString("attStmt").writeMapStart(3)
+                .writeTextString("alg").writeInt(CoseKey.ALG_ES256)
+                .writeTextString("sig").writeByteString(signature)
+                .writeTextString("x5c").writeArrayStart(certificates);
+        for (int i = 0; i < certificates; i++) {
+            byte[] certificate = new byte[CERTIFICATE_LENGTH];
+            random.nextBytes(certificate);
+            writer.writeByteString(certificate);
+        }
+        writer.writeTextString("authData").writeByteString(authData);
+        attestation = new Attestation(created.keyHandle, created.clientDataJSON, writer.toByteArray(), null);
+    }
+
+    @Benchmark
+    public Object marshalAssertion() {
+        MapResultWriter response = new MapResultWriter();
+        ResultMarshaller.PADDED.writeAssertion(assertion, response);
+        return response.map;
+    }
+
+    @Benchmark
+    public Object marshalAttestation() {
+        MapResultWriter response = new MapResultWriter();
+        ResultMarshaller.PADDED.writeAttestation(attestation, response);
+        return response.map;
+    }
+
+    @Benchmark
+    public Object marshalAttestationBase64Url() {
+        MapResultWriter response = new MapResultWriter();
+        ResultMarshaller.BASE64URL.writeAttestation(attestation, response);
+        return response.map;
+    }
+
+    @Benchmark
+    public String encodeAttestationObject() {
+        return Base64Codec.encode(attestation.attestationObject, true);
+    }
+}
@@ -0,0 +1,94 @@
+package com.rnfido;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Local relying party verification of ES256 assertions produced by the
+ * {@link FakeAuthenticator}, one at a time and as a batch spread over all
+ * cores.
+ */
+@State(Scope.Benchmark)
+public class VerificationBenchmark {
+
+    private static final String ORIGIN = "https://example.com";
+
+    @Param({"1", "100", "1000"})
+    public int assertions;
+
+    private RelyingPartyVerifier verifier;
+    private List<RelyingPartyVerifier.AssertionCheck> checks;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws VerificationException {
+        final List<Object> results = new ArrayList<>();
+        ResultSink sink = new ResultSink() {
+            @Override
+            public void resolve(Object value) {
+                results.add(value);
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                throw new IllegalStateException(code + ": " + message);
+            }
+        };
+        CeremonyEngine engine = new CeremonyEngine(new CeremonyRegistry(1, 0), new FakeAuthenticator(ORIGIN));
+        RequestOptions options = RequestOptions.parse(Collections.<String, Object>emptyMap());
+        List<RequestOptions.Algorithm> algorithms =
+                Collections.singletonList(new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_ES256));
+        Random random = new Random(assertions);
+
+        byte[] registerChallenge = new byte[32];
+        random.nextBytes(registerChallenge);
+        engine.register(new RegisterRequest("example.com", "Example", null, new byte[16], "user", null, "User",
+                registerChallenge, CredentialList.EMPTY, algorithms, options), sink);
+        Attestation created = (Attestation) results.get(0);
+
+        verifier = new RelyingPartyVerifier("example.com", null, Collections.singletonList(ORIGIN), false);
+        StoredCredential credential = verifier.verifyAttestation(created, registerChallenge, algorithms);
+        CredentialList allowList = new CredentialList(Collections.singletonList(created.keyHandle));
+
+        checks = new ArrayList<>(assertions);
+        for (int i = 0; i < assertions; i++) {
+            byte[] challenge = new byte[32];
+            random.nextBytes(challenge);
+            engine.sign(new SignRequest("example.com", null, challenge, allowList, options.timeoutSeconds), sink);
+            checks.add(new RelyingPartyVerifier.AssertionCheck(
+                    (Assertion) results.get(results.size() - 1), challenge, credential));
+        }
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public long verifySequentially() throws VerificationException {
+        long signCount = 0;
+        for (RelyingPartyVerifier.AssertionCheck check : checks) {
+            signCount += verifier.verifyAssertion(check.assertion, check.challenge, check.credential);
+        }
+        return signCount;
+    }
+
+    @Benchmark
+    public List<RelyingPartyVerifier.Result> verifyAll() throws InterruptedException {
+        return verifier.verifyAll(checks, executor);
+    }
+}
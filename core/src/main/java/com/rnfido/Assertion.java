@@ -0,0 +1,26 @@
+package com.rnfido;
+
+/**
+ * Raw output of a successful sign ceremony.
+ */
+final class Assertion {
+
+    final byte[] keyHandle;
+    final byte[] clientDataJSON;
+    final byte[] authenticatorData;
+    final byte[] signature;
+    /** May be null when the authenticator did not return a user handle. */
+    final byte[] userHandle;
+    /** Serialized client extension outputs, or null. */
+    final byte[] extensions;
+
+    Assertion(byte[] keyHandle, byte[] clientDataJSON, byte[] authenticatorData, byte[] signature,
+              byte[] userHandle, byte[] extensions) {
+        this.keyHandle = keyHandle;
+        this.clientDataJSON = clientDataJSON;
+        this.authenticatorData = authenticatorData;
+        this.signature = signature;
+        this.userHandle = userHandle;
+        this.extensions = extensions;
+    }
+}
@@ -0,0 +1,20 @@
+package com.rnfido;
+
+/**
+ * Raw output of a successful register ceremony.
+ */
+final class Attestation {
+
+    final byte[] keyHandle;
+    final byte[] clientDataJSON;
+    final byte[] attestationObject;
+    /** Transports the authenticator reported, e.g. "usb" or "internal", or null. */
+    final String[] transports;
+
+    Attestation(byte[] keyHandle, byte[] clientDataJSON, byte[] attestationObject, String[] transports) {
+        this.keyHandle = keyHandle;
+        this.clientDataJSON = clientDataJSON;
+        this.attestationObject = attestationObject;
+        this.transports = transports;
+    }
+}
@@ -0,0 +1,59 @@
+package com.rnfido;
+
+/**
+ * Decoded WebAuthn attestation object (WebAuthn section 6.5). The attestation
+ * statement is skipped; the authenticator data is located in place and
+ * decoded without an intermediate CBOR tree.
+ */
+final class AttestationObject {
+
+    final String fmt;
+    /** Location of the raw authenticator data inside the attestation object. */
+    final int authDataOffset;
+    final int authDataLength;
+    final AuthenticatorData authData;
+
+    private AttestationObject(String fmt, int authDataOffset, int authDataLength, AuthenticatorData authData) {
+        this.fmt = fmt;
+        this.authDataOffset = authDataOffset;
+        this.authDataLength = authDataLength;
+        this.authData = authData;
+    }
+
+    static AttestationObject parse(byte[] data) throws CborException {
+        CborReader reader = new CborReader(data);
+        String fmt = null;
+        int authDataOffset = -1;
+        int authDataLength = 0;
+
+        int entries = reader.readMapStart();
+        for (int i = 0; i < entries; i++) {
+            if (reader.peekMajorType() != CborReader.MAJOR_TEXT) {
+                reader.skip();
+                reader.skip();
+                continue;
+            }
+
+            String key = reader.readTextString();
+            if ("fmt".equals(key)) {
+                fmt = reader.readTextString();
+            } else if ("authData".equals(key)) {
+                authDataLength = reader.readByteStringLength();
+                authDataOffset = reader.position();
+                reader.skipBytes(authDataLength);
+            } else {
+                reader.skip();
+            }
+        }
+
+        if (reader.hasMore()) {
+            throw new CborException("Unexpected trailing bytes after attestation object at offset " + reader.position());
+        }
+        if (fmt == null || authDataOffset < 0) {
+            throw new CborException("Attestation object is missing fmt or authData");
+        }
+
+        AuthenticatorData authData = AuthenticatorData.parse(data, authDataOffset, authDataLength);
+        return new AttestationObject(fmt, authDataOffset, authDataLength, authData);
+    }
+}
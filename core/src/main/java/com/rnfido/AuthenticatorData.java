@@ -0,0 +1,104 @@
+package com.rnfido;
+
+import java.util.Arrays;
+
+/**
+ * Decoded WebAuthn authenticator data (WebAuthn section 6.1). Parsing walks the
+ * input once; only the fields exposed here are copied out.
+ */
+final class AuthenticatorData {
+
+    static final int FLAG_USER_PRESENT = 0x01;
+    static final int FLAG_USER_VERIFIED = 0x04;
+    static final int FLAG_BACKUP_ELIGIBLE = 0x08;
+    static final int FLAG_BACKED_UP = 0x10;
+    static final int FLAG_ATTESTED_CREDENTIAL_DATA = 0x40;
+    static final int FLAG_EXTENSION_DATA = 0x80;
+
+    private static final int RP_ID_HASH_LENGTH = 32;
+    private static final int AAGUID_LENGTH = 16;
+    private static final int HEADER_LENGTH = RP_ID_HASH_LENGTH + 1 + 4;
+
+    final byte[] rpIdHash;
+    final int flags;
+    final long signCount;
+    /** Attested credential data, null unless {@link #FLAG_ATTESTED_CREDENTIAL_DATA} is set. */
+    final byte[] aaguid;
+    final byte[] credentialId;
+    /** Raw COSE_Key bytes of the credential public key. */
+    final byte[] credentialPublicKey;
+    final CoseKey publicKey;
+
+    private AuthenticatorData(byte[] rpIdHash, int flags, long signCount, byte[] aaguid,
+                              byte[] credentialId, byte[] credentialPublicKey, CoseKey publicKey) {
+        this.rpIdHash = rpIdHash;
+        this.flags = flags;
+        this.signCount = signCount;
+        this.aaguid = aaguid;
+        this.credentialId = credentialId;
+        this.credentialPublicKey = credentialPublicKey;
+        this.publicKey = publicKey;
+    }
+
+    boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    static AuthenticatorData parse(byte[] data) throws CborException {
+        return parse(data, 0, data.length);
+    }
+
+    static AuthenticatorData parse(byte[] data, int offset, int length) throws CborException {
+        if (length < HEADER_LENGTH) {
+            throw new CborException("Authenticator data is " + length + " bytes, expected at least " + HEADER_LENGTH);
+        }
+        int end = offset + length;
+        int position = offset;
+
+        byte[] rpIdHash = Arrays.copyOfRange(data, position, position + RP_ID_HASH_LENGTH);
+        position += RP_ID_HASH_LENGTH;
+        int flags = data[position++] & 0xff;
+        long signCount = ((long) (data[position] & 0xff) << 24)
+                | ((data[position + 1] & 0xff) << 16)
+                | ((data[position + 2] & 0xff) << 8)
+                | (data[position + 3] & 0xff);
+        position += 4;
+
+        byte[] aaguid = null;
+        byte[] credentialId = null;
+        byte[] credentialPublicKey = null;
+        CoseKey publicKey = null;
+
+        if ((flags & FLAG_ATTESTED_CREDENTIAL_DATA) != 0) {
+            if (end - position < AAGUID_LENGTH + 2) {
+                throw new CborException("Truncated attested credential data");
+            }
+            aaguid = Arrays.copyOfRange(data, position, position + AAGUID_LENGTH);
+            position += AAGUID_LENGTH;
+            int credentialIdLength = ((data[position] & 0xff) << 8) | (data[position + 1] & 0xff);
+            position += 2;
+            if (end - position < credentialIdLength) {
+                throw new CborException("Truncated credential id");
+            }
+            credentialId = Arrays.copyOfRange(data, position, position + credentialIdLength);
+            position += credentialIdLength;
+
+            CborReader reader = new CborReader(data, position, end - position);
+            publicKey = CoseKey.read(reader);
+            credentialPublicKey = Arrays.copyOfRange(data, position, reader.position());
+            position = reader.position();
+        }
+
+        if ((flags & FLAG_EXTENSION_DATA) != 0) {
+            CborReader reader = new CborReader(data, position, end - position);
+            reader.skip();
+            position = reader.position();
+        }
+
+        if (position != end) {
+            throw new CborException("Unexpected " + (end - position) + " trailing bytes in authenticator data");
+        }
+
+        return new AuthenticatorData(rpIdHash, flags, signCount, aaguid, credentialId, credentialPublicKey, publicKey);
+    }
+}
@@ -0,0 +1,98 @@
+package com.rnfido;
+
+import java.util.Arrays;
+
+/**
+ * Base64 for the bridge wire format. Encoding always uses the URL-safe
+ * alphabet, with or without padding. Decoding accepts either alphabet,
+ * optional padding and embedded line breaks, so callers may pass standard or
+ * URL-safe input.
+ */
+final class Base64Codec {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int[] DECODE = new int[128];
+
+    static {
+        Arrays.fill(DECODE, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = i;
+        }
+        DECODE['+'] = 62;
+        DECODE['/'] = 63;
+    }
+
+    private Base64Codec() {
+    }
+
+    static String encode(byte[] data, boolean padding) {
+        return encode(data, 0, data.length, padding);
+    }
+
+    static String encode(byte[] data, int offset, int length, boolean padding) {
+        int fullGroups = length / 3;
+        int remainder = length - fullGroups * 3;
+        int outLength = fullGroups * 4 + (remainder == 0 ? 0 : (padding ? 4 : remainder + 1));
+        char[] out = new char[outLength];
+
+        int in = offset;
+        int o = 0;
+        for (int i = 0; i < fullGroups; i++) {
+            int bits = (data[in++] & 0xff) << 16 | (data[in++] & 0xff) << 8 | (data[in++] & 0xff);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[o++] = ALPHABET[bits & 0x3f];
+        }
+        if (remainder > 0) {
+            int bits = (data[in++] & 0xff) << 16 | (remainder == 2 ? (data[in] & 0xff) << 8 : 0);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            if (remainder == 2) {
+                out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            }
+            if (padding) {
+                while (o < outLength) {
+                    out[o++] = '=';
+                }
+            }
+        }
+        return new String(out);
+    }
+
+    static byte[] decode(String text) {
+        int length = text.length();
+        int symbols = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 128 && DECODE[c] >= 0) {
+                symbols++;
+            } else if (c != '=' && c != '\n' && c != '\r' && c != ' ' && c != '\t') {
+                throw new IllegalArgumentException("Invalid base64 character at index " + i);
+            }
+        }
+        if (symbols % 4 == 1) {
+            throw new IllegalArgumentException("Truncated base64 input");
+        }
+
+        byte[] out = new byte[symbols * 6 / 8];
+        int bits = 0;
+        int bitCount = 0;
+        int o = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int value = c < 128 ? DECODE[c] : -1;
+            if (value < 0) {
+                continue;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[o++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,14 @@
+package com.rnfido;
+
+/**
+ * Thrown when authenticator data or an attestation object is not the CBOR the
+ * WebAuthn spec promises.
+ */
+class CborException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    CborException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,197 @@
+package com.rnfido;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Forward-only CBOR reader over a byte array. Items are consumed in place:
+ * nothing is materialised unless the caller asks for it, and byte strings
+ * can be addressed by offset without copying.
+ *
+ * Only the definite-length encodings required by CTAP2 canonical CBOR are
+ * supported. Floats and other simple values can be skipped but not read.
+ */
+final class CborReader {
+
+    static final int MAJOR_UNSIGNED = 0;
+    static final int MAJOR_NEGATIVE = 1;
+    static final int MAJOR_BYTES = 2;
+    static final int MAJOR_TEXT = 3;
+    static final int MAJOR_ARRAY = 4;
+    static final int MAJOR_MAP = 5;
+    static final int MAJOR_TAG = 6;
+    static final int MAJOR_SIMPLE = 7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_DEPTH = 16;
+
+    private final byte[] data;
+    private final int end;
+    private int position;
+
+    CborReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    CborReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    int position() {
+        return position;
+    }
+
+    boolean hasMore() {
+        return position < end;
+    }
+
+    int peekMajorType() throws CborException {
+        require(1);
+        return (data[position] & 0xff) >>> 5;
+    }
+
+    long readInt() throws CborException {
+        int majorType = peekMajorType();
+        if (majorType == MAJOR_UNSIGNED) {
+            return readHeader(MAJOR_UNSIGNED);
+        }
+        if (majorType == MAJOR_NEGATIVE) {
+            return -1 - readHeader(MAJOR_NEGATIVE);
+        }
+        throw new CborException("Expected an integer at offset " + position);
+    }
+
+    int readMapStart() throws CborException {
+        return toCount(readHeader(MAJOR_MAP));
+    }
+
+    int readArrayStart() throws CborException {
+        return toCount(readHeader(MAJOR_ARRAY));
+    }
+
+    /**
+     * Reads a byte string header and leaves the reader on its first content
+     * byte. The caller must {@link #skipBytes(int)} past the content.
+     */
+    int readByteStringLength() throws CborException {
+        int length = toCount(readHeader(MAJOR_BYTES));
+        require(length);
+        return length;
+    }
+
+    byte[] readByteString() throws CborException {
+        int length = readByteStringLength();
+        byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+        position += length;
+        return bytes;
+    }
+
+    String readTextString() throws CborException {
+        int length = toCount(readHeader(MAJOR_TEXT));
+        require(length);
+        String text = new String(data, position, length, UTF_8);
+        position += length;
+        return text;
+    }
+
+    void skipBytes(int count) throws CborException {
+        require(count);
+        position += count;
+    }
+
+    /**
+     * Skips over the next complete data item, including nested containers.
+     */
+    void skip() throws CborException {
+        skip(0);
+    }
+
+    private void skip(int depth) throws CborException {
+        if (depth > MAX_DEPTH) {
+            throw new CborException("CBOR nesting too deep at offset " + position);
+        }
+        int majorType = peekMajorType();
+        long argument = readHeader(majorType);
+        switch (majorType) {
+            case MAJOR_BYTES:
+            case MAJOR_TEXT:
+                skipBytes(toCount(argument));
+                break;
+            case MAJOR_ARRAY:
+                for (long i = 0; i < argument; i++) {
+                    skip(depth + 1);
+                }
+                break;
+            case MAJOR_MAP:
+                for (long i = 0; i < argument * 2; i++) {
+                    skip(depth + 1);
+                }
+                break;
+            case MAJOR_TAG:
+                skip(depth + 1);
+                break;
+            default:
+                // Integers and simple values are fully consumed by their header
+                break;
+        }
+    }
+
+    private long readHeader(int majorType) throws CborException {
+        require(1);
+        int initial = data[position] & 0xff;
+        if ((initial >>> 5) != majorType) {
+            throw new CborException("Expected major type " + majorType + " at offset " + position);
+        }
+        position++;
+
+        int info = initial & 0x1f;
+        if (info < 24) {
+            return info;
+        }
+        int size;
+        switch (info) {
+            case 24:
+                size = 1;
+                break;
+            case 25:
+                size = 2;
+                break;
+            case 26:
+                size = 4;
+                break;
+            case 27:
+                size = 8;
+                break;
+            case 31:
+                throw new CborException("Indefinite-length items are not supported at offset " + (position - 1));
+            default:
+                throw new CborException("Reserved additional info " + info + " at offset " + (position - 1));
+        }
+        require(size);
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (data[position++] & 0xff);
+        }
+        // For simple values the argument holds float bits, which may well have the top bit set
+        if (value < 0 && majorType != MAJOR_SIMPLE) {
+            throw new CborException("Integer out of range at offset " + (position - size));
+        }
+        return value;
+    }
+
+    private int toCount(long value) throws CborException {
+        if (value > end - position) {
+            // Every element takes at least one byte, so this can never fit
+            throw new CborException("Length " + value + " exceeds input at offset " + position);
+        }
+        return (int) value;
+    }
+
+    private void require(int count) throws CborException {
+        if (count < 0 || end - position < count) {
+            throw new CborException("Unexpected end of CBOR input at offset " + position);
+        }
+    }
+}
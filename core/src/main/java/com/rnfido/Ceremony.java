@@ -0,0 +1,144 @@
+package com.rnfido;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single sign or register request owned by a {@link CeremonyRegistry}.
+ * The result sink is settled at most once and dropped afterwards. Only
+ * then is the request code freed, so the next queued ceremony starts after
+ * this one's caller has its result. The code is freed even when the sink
+ * throws.
+ */
+class Ceremony {
+
+    static final int SIGN = 0;
+    static final int REGISTER = 1;
+
+    final long id;
+    final int type;
+
+    /** When the caller asked for the ceremony, before its request was parsed. */
+    final long createdAt;
+    final double timeoutSeconds;
+
+    private ResultSink sink;
+    private final CeremonyRegistry registry;
+    private final AtomicBoolean settled = new AtomicBoolean(false);
+    final CeremonyRegistry.Starter starter;
+    int requestCode = -1;
+    private final long[] phaseNanos = new long[CeremonyMetrics.PHASES];
+    private volatile long lastMark;
+    // Spent parsing the request before it was submitted; counted as build time
+    private final long preparationNanos;
+    private volatile Future<?> deadline;
+
+    Ceremony(CeremonyRegistry registry, long id, int type, long createdAt, long submittedAt, double timeoutSeconds,
+             ResultSink sink, CeremonyRegistry.Starter starter) {
+        this.registry = registry;
+        this.id = id;
+        this.type = type;
+        this.createdAt = createdAt;
+        this.timeoutSeconds = timeoutSeconds;
+        this.sink = sink;
+        this.starter = starter;
+        this.lastMark = submittedAt;
+        this.preparationNanos = submittedAt - createdAt;
+    }
+
+    int getRequestCode() {
+        return requestCode;
+    }
+
+    boolean isSettled() {
+        return settled.get();
+    }
+
+    /**
+     * Hands over the watchdog's scheduled check so it is cancelled as soon
+     * as the ceremony settles, instead of lingering until the deadline.
+     */
+    void setDeadline(Future<?> deadline) {
+        this.deadline = deadline;
+        // Settled before the check was handed over
+        if (settled.get()) {
+            cancelDeadline();
+        }
+    }
+
+    /**
+     * Records the time since the previous mark as the given phase. Phases are
+     * marked in order by whichever thread moves the ceremony along. The build
+     * phase also gets the time from the caller's request until submission.
+     */
+    void mark(int phase) {
+        long now = registry.clock.nanoTime();
+        long elapsed = now - lastMark;
+        if (phase == CeremonyMetrics.PHASE_BUILD) {
+            elapsed += preparationNanos;
+        }
+        phaseNanos[phase] = elapsed;
+        registry.metrics.recordPhase(type, phase, elapsed);
+        lastMark = now;
+        Tracer.trace(Tracer.DEBUG, Tracer.EVENT_PHASE, id, phase);
+    }
+
+    boolean resolve(Object value) {
+        if (!settled.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelDeadline();
+        try {
+            takeSink().resolve(value);
+            mark(CeremonyMetrics.PHASE_DECODE);
+        } finally {
+            // Nothing else can free the request code once the ceremony is settled
+            finish(CeremonyMetrics.OUTCOME_SUCCESS);
+            registry.release(this);
+        }
+        return true;
+    }
+
+    boolean reject(String code, String message) {
+        return reject(CeremonyMetrics.OUTCOME_ERROR, code, message);
+    }
+
+    boolean reject(int outcome, String code, String message) {
+        if (!settled.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelDeadline();
+        try {
+            takeSink().reject(code, message);
+        } finally {
+            finish(outcome);
+            registry.release(this);
+        }
+        return true;
+    }
+
+    /**
+     * Only the thread that won the settle race gets here, so the sink can be
+     * handed over without further synchronisation.
+     */
+    private ResultSink takeSink() {
+        ResultSink result = sink;
+        sink = null;
+        return result;
+    }
+
+    private void cancelDeadline() {
+        Future<?> current = deadline;
+        if (current != null) {
+            deadline = null;
+            current.cancel(false);
+        }
+    }
+
+    private void finish(int outcome) {
+        phaseNanos[CeremonyMetrics.PHASE_TOTAL] = registry.clock.nanoTime() - createdAt;
+        Tracer.trace(outcome == CeremonyMetrics.OUTCOME_SUCCESS || outcome == CeremonyMetrics.OUTCOME_CANCELLED
+                ? Tracer.INFO : Tracer.ERROR, Tracer.EVENT_SETTLED, id, outcome);
+        registry.metrics.finished(type, outcome, phaseNanos);
+    }
+}
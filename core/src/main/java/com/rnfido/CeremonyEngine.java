@@ -0,0 +1,111 @@
+package com.rnfido;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs sign and register ceremonies against a {@link CredentialClient},
+ * with the {@link CeremonyRegistry} doing the in-flight bookkeeping.
+ * Successful ceremonies are recorded in the {@link CredentialIndex}, if one
+ * is set, as a separate task on the index executor.
+ */
+final class CeremonyEngine {
+
+    private final CeremonyRegistry registry;
+    private final CredentialClient client;
+    private volatile CredentialIndex credentialIndex;
+    private volatile Executor indexExecutor;
+
+    CeremonyEngine(CeremonyRegistry registry, CredentialClient client) {
+        this.registry = registry;
+        this.client = client;
+    }
+
+    CeremonyRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Sets the index that successful ceremonies are recorded in. Records are
+     * written by tasks on {@code executor}, which should run them one at a
+     * time off the thread that settles ceremonies.
+     */
+    void setCredentialIndex(CredentialIndex credentialIndex, Executor executor) {
+        this.indexExecutor = executor;
+        this.credentialIndex = credentialIndex;
+    }
+
+    Ceremony sign(SignRequest request, ResultSink sink) {
+        return sign(request, registry.clock.nanoTime(), sink);
+    }
+
+    /**
+     * Starts a sign ceremony for a call that arrived at {@code requestedAt}
+     * on the registry clock, so parsing the call counts towards its build
+     * phase.
+     */
+    Ceremony sign(final SignRequest request, long requestedAt, ResultSink sink) {
+        return registry.submit(Ceremony.SIGN, requestedAt, request.timeoutSeconds, recording(sink, request.rpId, null), new CeremonyRegistry.Starter() {
+            @Override
+            public void start(Ceremony ceremony) {
+                client.sign(ceremony, request);
+            }
+        });
+    }
+
+    Ceremony register(RegisterRequest request, ResultSink sink) {
+        return register(request, registry.clock.nanoTime(), sink);
+    }
+
+    Ceremony register(final RegisterRequest request, long requestedAt, ResultSink sink) {
+        return registry.submit(Ceremony.REGISTER, requestedAt, request.timeoutSeconds, recording(sink, request.rpId, request.userId), new CeremonyRegistry.Starter() {
+            @Override
+            public void start(Ceremony ceremony) {
+                client.register(ceremony, request);
+            }
+        });
+    }
+
+    /**
+     * Wraps a sink so a successful result is added to the credential index
+     * once the caller has it. Register results are indexed under the user
+     * id of the request; sign results under the returned user handle. The
+     * disk write is queued rather than done in place, so it neither delays
+     * the ceremony that settles nor counts towards its decode phase.
+     */
+    ResultSink recording(final ResultSink sink, final String rpId, final byte[] userId) {
+        final CredentialIndex index = credentialIndex;
+        final Executor executor = indexExecutor;
+        if (index == null || rpId == null) {
+            return sink;
+        }
+        return new ResultSink() {
+            @Override
+            public void resolve(final Object value) {
+                sink.resolve(value);
+                if (value instanceof Assertion || value instanceof Attestation) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            record(index, value, rpId, userId);
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                sink.reject(code, message);
+            }
+        };
+    }
+
+    private static void record(CredentialIndex index, Object value, String rpId, byte[] userId) {
+        if (value instanceof Assertion) {
+            Assertion assertion = (Assertion) value;
+            index.record(assertion.keyHandle, rpId, assertion.userHandle, null);
+        } else {
+            Attestation attestation = (Attestation) value;
+            index.record(attestation.keyHandle, rpId, userId, attestation.transports);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.rnfido;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-phase latency histograms and outcome counters for sign and register
+ * ceremonies. Phases are recorded by the {@link Ceremony} as it moves along:
+ *
+ * <ul>
+ *   <li>queue: waiting for a free request code</li>
+ *   <li>build: parsing the call and building the platform request options,
+ *   from the bridge call on; near zero for prepared ceremonies, which did this
+ *   ahead of time</li>
+ *   <li>pendingIntent: the platform round-trip before the UI is launched</li>
+ *   <li>user: the user interacting with the authenticator UI</li>
+ *   <li>decode: deserializing and marshalling the result</li>
+ *   <li>total: from the bridge call until the caller is settled</li>
+ * </ul>
+ */
+final class CeremonyMetrics {
+
+    static final int PHASE_QUEUE = 0;
+    static final int PHASE_BUILD = 1;
+    static final int PHASE_PENDING_INTENT = 2;
+    static final int PHASE_USER = 3;
+    static final int PHASE_DECODE = 4;
+    static final int PHASE_TOTAL = 5;
+    static final int PHASES = 6;
+    static final String[] PHASE_NAMES = {"queue", "build", "pendingIntent", "user", "decode", "total"};
+
+    static final int OUTCOME_SUCCESS = 0;
+    static final int OUTCOME_CANCELLED = 1;
+    static final int OUTCOME_AUTHENTICATOR_ERROR = 2;
+    static final int OUTCOME_TASK_FAILURE = 3;
+    static final int OUTCOME_REJECTED = 4;
+    static final int OUTCOME_ERROR = 5;
+    static final int OUTCOME_TIMEOUT = 6;
+    static final int OUTCOME_LAUNCH_FAILURE = 7;
+    static final int OUTCOMES = 8;
+    static final String[] OUTCOME_NAMES = {"success", "cancelled", "authenticatorError", "taskFailure", "rejected", "error",
+            "timeout", "launchFailure"};
+
+    static final String[] TYPE_NAMES = {"sign", "register"};
+
+    interface Listener {
+        void onCeremonyFinished(int type, int outcome, long[] phaseNanos);
+    }
+
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    private final LatencyHistogram[][] histograms = new LatencyHistogram[TYPE_NAMES.length][PHASES];
+    private final AtomicLongArray outcomes = new AtomicLongArray(TYPE_NAMES.length * OUTCOMES);
+    private volatile Listener listener;
+
+    CeremonyMetrics() {
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            for (int phase = 0; phase < PHASES; phase++) {
+                histograms[type][phase] = new LatencyHistogram();
+            }
+        }
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    void recordPhase(int type, int phase, long nanos) {
+        histograms[type][phase].record(nanos);
+    }
+
+    void recordOutcome(int type, int outcome) {
+        outcomes.incrementAndGet(type * OUTCOMES + outcome);
+    }
+
+    void finished(int type, int outcome, long[] phaseNanos) {
+        histograms[type][PHASE_TOTAL].record(phaseNanos[PHASE_TOTAL]);
+        recordOutcome(type, outcome);
+        Listener current = listener;
+        if (current != null) {
+            current.onCeremonyFinished(type, outcome, phaseNanos);
+        }
+    }
+
+    void reset() {
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            for (int phase = 0; phase < PHASES; phase++) {
+                histograms[type][phase].reset();
+            }
+            for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+                outcomes.set(type * OUTCOMES + outcome, 0);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot keyed by ceremony type, with latencies in milliseconds.
+     */
+    void write(ResultWriter out) {
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            ResultWriter phases = out.createMap();
+            for (int phase = 0; phase < PHASES; phase++) {
+                LatencyHistogram histogram = histograms[type][phase];
+                ResultWriter stats = phases.createMap();
+                stats.putDouble("count", histogram.count());
+                stats.putDouble("mean", histogram.mean() / NANOS_PER_MILLI);
+                stats.putDouble("p50", histogram.percentile(50) / NANOS_PER_MILLI);
+                stats.putDouble("p90", histogram.percentile(90) / NANOS_PER_MILLI);
+                stats.putDouble("p99", histogram.percentile(99) / NANOS_PER_MILLI);
+                stats.putDouble("max", histogram.max() / NANOS_PER_MILLI);
+                phases.putMap(PHASE_NAMES[phase], stats);
+            }
+
+            ResultWriter outcomeCounts = out.createMap();
+            for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+                outcomeCounts.putDouble(OUTCOME_NAMES[outcome], outcomes.get(type * OUTCOMES + outcome));
+            }
+
+            ResultWriter typeMetrics = out.createMap();
+            typeMetrics.putMap("phases", phases);
+            typeMetrics.putMap("outcomes", outcomeCounts);
+            out.putMap(TYPE_NAMES[type], typeMetrics);
+        }
+    }
+
+    static void writePhases(long[] phaseNanos, ResultWriter out) {
+        for (int phase = 0; phase < PHASES; phase++) {
+            out.putDouble(PHASE_NAMES[phase], phaseNanos[phase] / NANOS_PER_MILLI);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.rnfido;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * In-flight request table for sign and register ceremonies.
+ *
+ * Every ceremony gets its own activity request code out of a fixed window
+ * starting at {@link #REQUEST_CODE_BASE}, so activity results are routed back
+ * to the right caller with a single array lookup. At most {@code maxInFlight}
+ * ceremonies hold a request code at once; further ones wait in a bounded FIFO
+ * queue and are rejected with {@link #E_TOO_MANY_REQUESTS} when it is full.
+ *
+ * Ceremonies that got a request code are started in FIFO order by a single
+ * loop, which runs on the start executor rather than on whichever thread
+ * submitted or settled a ceremony. A ceremony that settles while being
+ * started, e.g. against an in-process authenticator, only hands its code on
+ * to the next one in line and returns, so the stack stays flat however long
+ * the queue is.
+ */
+class CeremonyRegistry {
+
+    interface Starter {
+        void start(Ceremony ceremony);
+    }
+
+    static final int REQUEST_CODE_BASE = 0x2F00;
+    static final int MAX_REQUEST_CODES = 64;
+    static final String E_TOO_MANY_REQUESTS = "E_TOO_MANY_REQUESTS";
+    static final String E_INVALID_REQUEST = "E_INVALID_REQUEST";
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    final Clock clock;
+    final CeremonyMetrics metrics;
+    private final Ceremony[] slots = new Ceremony[MAX_REQUEST_CODES];
+    private final ArrayDeque<Ceremony> queue = new ArrayDeque<>();
+    // Holds a request code but has not been started yet
+    private final ArrayDeque<Ceremony> ready = new ArrayDeque<>();
+    private boolean starting;
+    private volatile CeremonyWatchdog watchdog;
+    private volatile Executor startExecutor = DIRECT;
+    private final Runnable startReady = new Runnable() {
+        @Override
+        public void run() {
+            startReady();
+        }
+    };
+    private int maxInFlight;
+    private int maxQueued;
+    private int inFlight;
+    private int cursor;
+    private long nextId = 1;
+
+    CeremonyRegistry(int maxInFlight, int maxQueued) {
+        this(Clock.SYSTEM, new CeremonyMetrics(), maxInFlight, maxQueued);
+    }
+
+    CeremonyRegistry(Clock clock, CeremonyMetrics metrics, int maxInFlight, int maxQueued) {
+        this.clock = clock;
+        this.metrics = metrics;
+        setLimits(maxInFlight, maxQueued);
+    }
+
+    /**
+     * Arms a deadline for every ceremony as it starts. Ceremonies that are
+     * already running are not affected.
+     */
+    void setWatchdog(CeremonyWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Sets where ceremonies are started, i.e. where their request options are
+     * built. By default they start on the thread that freed their request
+     * code, which suits in-process authenticators and tests.
+     */
+    void setStartExecutor(Executor executor) {
+        this.startExecutor = executor;
+    }
+
+    synchronized void setLimits(int maxInFlight, int maxQueued) {
+        if (maxInFlight < 1 || maxInFlight > MAX_REQUEST_CODES) {
+            throw new IllegalArgumentException("maxInFlight must be between 1 and " + MAX_REQUEST_CODES);
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Registers a new ceremony and schedules its start right away when a
+     * request code is free. Returns null when the ceremony was rejected for back-pressure.
+     */
+    Ceremony submit(int type, double timeoutSeconds, ResultSink sink, Starter starter) {
+        return submit(type, clock.nanoTime(), timeoutSeconds, sink, starter);
+    }
+
+    /**
+     * Like {@link #submit(int, double, ResultSink, Starter)}, for a request
+     * that the caller made at {@code requestedAt} on this registry's clock
+     * and then spent time parsing.
+     */
+    Ceremony submit(int type, long requestedAt, double timeoutSeconds, ResultSink sink, Starter starter) {
+        Ceremony ceremony;
+        boolean drain = false;
+        synchronized (this) {
+            ceremony = new Ceremony(this, nextId++, type, requestedAt, clock.nanoTime(), timeoutSeconds, sink, starter);
+            if (inFlight < maxInFlight) {
+                allocate(ceremony);
+                ready.addLast(ceremony);
+                drain = claimStarts();
+            } else if (queue.size() < maxQueued) {
+                queue.addLast(ceremony);
+            } else {
+                ceremony = null;
+            }
+        }
+
+        if (ceremony == null) {
+            Tracer.trace(Tracer.ERROR, Tracer.EVENT_THROTTLED, 0, type);
+            metrics.recordOutcome(type, CeremonyMetrics.OUTCOME_REJECTED);
+            sink.reject(E_TOO_MANY_REQUESTS, "Too many FIDO2 requests in flight");
+            return null;
+        }
+        Tracer.trace(Tracer.INFO, Tracer.EVENT_SUBMITTED, ceremony.id, type);
+        if (drain) {
+            scheduleStarts();
+        }
+        return ceremony;
+    }
+
+    /**
+     * Returns the ceremony that was launched with the given request code, or
+     * null when the code does not belong to this module.
+     */
+    synchronized Ceremony get(int requestCode) {
+        if (!isRequestCode(requestCode)) {
+            return null;
+        }
+        return slots[requestCode - REQUEST_CODE_BASE];
+    }
+
+    /**
+     * Returns true when the code is in this module's window, whether or not a
+     * ceremony still holds it.
+     */
+    static boolean isRequestCode(int requestCode) {
+        return requestCode >= REQUEST_CODE_BASE && requestCode < REQUEST_CODE_BASE + MAX_REQUEST_CODES;
+    }
+
+    synchronized int size() {
+        return inFlight + queue.size();
+    }
+
+    /**
+     * Rejects every running and queued ceremony, e.g. because the host is
+     * going away. Queued ceremonies are rejected without being started.
+     */
+    void rejectAll(String code, String message) {
+        List<Ceremony> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(queue);
+            queue.clear();
+            for (Ceremony ceremony : slots) {
+                if (ceremony != null) {
+                    pending.add(ceremony);
+                }
+            }
+        }
+        for (Ceremony ceremony : pending) {
+            ceremony.reject(code, message);
+        }
+    }
+
+    void release(Ceremony ceremony) {
+        boolean drain = false;
+        synchronized (this) {
+            int index = ceremony.requestCode - REQUEST_CODE_BASE;
+            if (ceremony.requestCode >= 0 && slots[index] == ceremony) {
+                slots[index] = null;
+                inFlight--;
+                ready.remove(ceremony);
+            } else {
+                queue.remove(ceremony);
+            }
+
+            while (inFlight < maxInFlight && !queue.isEmpty()) {
+                Ceremony next = queue.pollFirst();
+                allocate(next);
+                ready.addLast(next);
+            }
+            if (!ready.isEmpty()) {
+                drain = claimStarts();
+            }
+        }
+
+        if (drain) {
+            scheduleStarts();
+        }
+    }
+
+    /**
+     * Returns true when the caller should schedule {@link #startReady}; false
+     * when a start loop is already scheduled or running and will pick up what
+     * was just made ready.
+     */
+    private boolean claimStarts() {
+        if (starting) {
+            return false;
+        }
+        starting = true;
+        return true;
+    }
+
+    private void scheduleStarts() {
+        try {
+            startExecutor.execute(startReady);
+        } catch (RuntimeException e) {
+            // E.g. a shut down executor; a later submit or release tries again
+            synchronized (this) {
+                starting = false;
+            }
+            throw e;
+        }
+    }
+
+    private void startReady() {
+        Ceremony next = null;
+        try {
+            while (true) {
+                synchronized (this) {
+                    next = ready.pollFirst();
+                    if (next == null) {
+                        starting = false;
+                        return;
+                    }
+                }
+                start(next);
+            }
+        } finally {
+            if (next != null) {
+                // A starter threw; let the next release pick up what is left
+                synchronized (this) {
+                    starting = false;
+                }
+            }
+        }
+    }
+
+    private void start(Ceremony ceremony) {
+        if (ceremony.isSettled()) {
+            return;
+        }
+        ceremony.mark(CeremonyMetrics.PHASE_QUEUE);
+        CeremonyWatchdog current = watchdog;
+        if (current != null) {
+            current.watch(ceremony);
+        }
+        try {
+            ceremony.starter.start(ceremony);
+        } catch (RuntimeException e) {
+            // E.g. the platform refusing the request options. Free the request code now
+            // rather than when the watchdog fires.
+            ceremony.reject(CeremonyMetrics.OUTCOME_ERROR, E_INVALID_REQUEST, e.getMessage());
+        }
+    }
+
+    private void allocate(Ceremony ceremony) {
+        // Rotate through the window so a freed code is not handed out again
+        // straight away, which keeps late results from reaching a new caller.
+        for (int i = 0; i < MAX_REQUEST_CODES; i++) {
+            int index = (cursor + i) % MAX_REQUEST_CODES;
+            if (slots[index] == null) {
+                slots[index] = ceremony;
+                ceremony.requestCode = REQUEST_CODE_BASE + index;
+                cursor = (index + 1) % MAX_REQUEST_CODES;
+                inFlight++;
+                return;
+            }
+        }
+        throw new IllegalStateException("No free request code");
+    }
+}
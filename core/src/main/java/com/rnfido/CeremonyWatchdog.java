@@ -0,0 +1,41 @@
+package com.rnfido;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejects ceremonies that outlive their timeout. The platform UI is asked to
+ * honour the same timeout, so the watchdog only fires when its result got
+ * lost, e.g. because the activity went away mid-ceremony.
+ *
+ * The scheduled check is cancelled when the ceremony settles. It only holds
+ * a weak reference as well, so a scheduler that keeps cancelled tasks
+ * queued does not pin the ceremony until its deadline either.
+ */
+final class CeremonyWatchdog {
+
+    static final String E_TIMEOUT = "E_TIMEOUT";
+
+    private final ScheduledExecutorService scheduler;
+    private final long graceMillis;
+
+    CeremonyWatchdog(ScheduledExecutorService scheduler, long graceMillis) {
+        this.scheduler = scheduler;
+        this.graceMillis = graceMillis;
+    }
+
+    void watch(Ceremony ceremony) {
+        long delayMillis = (long) (ceremony.timeoutSeconds * 1000) + graceMillis;
+        final WeakReference<Ceremony> reference = new WeakReference<>(ceremony);
+        ceremony.setDeadline(scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Ceremony expired = reference.get();
+                if (expired != null) {
+                    expired.reject(CeremonyMetrics.OUTCOME_TIMEOUT, E_TIMEOUT, "FIDO2 request timed out");
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+}
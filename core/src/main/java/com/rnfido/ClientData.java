@@ -0,0 +1,218 @@
+package com.rnfido;
+
+import java.nio.charset.Charset;
+
+/**
+ * The members of {@code clientDataJSON} a relying party checks (WebAuthn
+ * section 5.8.1). This is not a general JSON parser: it walks the top-level
+ * object once, decodes the string members it needs and skips everything
+ * else, including nested objects such as {@code tokenBinding}.
+ */
+final class ClientData {
+
+    static final String TYPE_CREATE = "webauthn.create";
+    static final String TYPE_GET = "webauthn.get";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final String type;
+    /** base64url encoded, as the client wrote it. */
+    final String challenge;
+    final String origin;
+    final boolean crossOrigin;
+
+    private ClientData(String type, String challenge, String origin, boolean crossOrigin) {
+        this.type = type;
+        this.challenge = challenge;
+        this.origin = origin;
+        this.crossOrigin = crossOrigin;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the input is not a JSON object, or
+     *         has anything but whitespace after it
+     */
+    static ClientData parse(byte[] clientDataJSON) {
+        return new Scanner(new String(clientDataJSON, UTF_8)).readClientData();
+    }
+
+    private static final class Scanner {
+        private final String json;
+        private int position;
+
+        Scanner(String json) {
+            this.json = json;
+        }
+
+        ClientData readClientData() {
+            String type = null;
+            String challenge = null;
+            String origin = null;
+            boolean crossOrigin = false;
+
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    String key = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if ("type".equals(key) && peek() == '"') {
+                        type = readString();
+                    } else if ("challenge".equals(key) && peek() == '"') {
+                        challenge = readString();
+                    } else if ("origin".equals(key) && peek() == '"') {
+                        origin = readString();
+                    } else if ("crossOrigin".equals(key) && json.startsWith("true", position)) {
+                        crossOrigin = true;
+                        position += 4;
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                    char next = next();
+                    if (next == '}') {
+                        break;
+                    }
+                    if (next != ',') {
+                        throw error("Expected ',' or '}'");
+                    }
+                }
+            }
+            skipWhitespace();
+            if (position != json.length()) {
+                throw error("Unexpected data after the client data object");
+            }
+            return new ClientData(type, challenge, origin, crossOrigin);
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder builder = null;
+            int start = position;
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    if (builder == null) {
+                        return json.substring(start, position - 1);
+                    }
+                    return builder.toString();
+                }
+                if (c != '\\') {
+                    if (builder != null) {
+                        builder.append(c);
+                    }
+                    continue;
+                }
+
+                if (builder == null) {
+                    builder = new StringBuilder(json.substring(start, position - 1));
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        builder.append(escaped);
+                        break;
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > json.length()) {
+                            throw error("Truncated unicode escape");
+                        }
+                        try {
+                            builder.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            }
+        }
+
+        private void skipValue() {
+            char c = peek();
+            if (c == '"') {
+                readString();
+                return;
+            }
+            if (c != '{' && c != '[') {
+                // Number or literal
+                int start = position;
+                while (position < json.length() && ",}] \t\r\n".indexOf(json.charAt(position)) < 0) {
+                    position++;
+                }
+                if (position == start) {
+                    throw error("Expected a value");
+                }
+                return;
+            }
+
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    readString();
+                    continue;
+                }
+                position++;
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length() && " \t\r\n".indexOf(json.charAt(position)) >= 0) {
+                position++;
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+        }
+
+        private char peek() {
+            if (position >= json.length()) {
+                throw error("Unexpected end of input");
+            }
+            return json.charAt(position);
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + position + " of clientDataJSON");
+        }
+    }
+}
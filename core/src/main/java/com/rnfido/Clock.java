@@ -0,0 +1,17 @@
+package com.rnfido;
+
+/**
+ * Monotonic time source, replaceable so ceremony timing can be driven from
+ * tests and load runs.
+ */
+interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long nanoTime();
+}
@@ -0,0 +1,179 @@
+package com.rnfido;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Credential public key in COSE_Key form (RFC 8152), as embedded in attested
+ * credential data. Only the members WebAuthn relies on are decoded.
+ */
+final class CoseKey {
+
+    static final int KTY_OKP = 1;
+    static final int KTY_EC2 = 2;
+    static final int KTY_RSA = 3;
+
+    static final int ALG_ES256 = -7;
+    static final int ALG_EDDSA = -8;
+    static final int ALG_RS256 = -257;
+
+    static final int CRV_P256 = 1;
+    static final int CRV_ED25519 = 6;
+
+    private static final int LABEL_KTY = 1;
+
+    // DER SubjectPublicKeyInfo headers, followed by the raw key bytes
+    private static final byte[] P256_SPKI_PREFIX = hex("3059301306072a8648ce3d020106082a8648ce3d030107034200");
+    private static final byte[] ED25519_SPKI_PREFIX = hex("302a300506032b6570032100");
+    private static final int P256_COORDINATE_LENGTH = 32;
+    private static final int ED25519_KEY_LENGTH = 32;
+    private static final int LABEL_ALG = 3;
+
+    final int kty;
+    final int alg;
+    /** Curve for EC2 and OKP keys, 0 for RSA. */
+    final int crv;
+    /** x coordinate (EC2, OKP) or modulus n (RSA). */
+    final byte[] x;
+    /** y coordinate (EC2) or exponent e (RSA). */
+    final byte[] y;
+
+    private CoseKey(int kty, int alg, int crv, byte[] x, byte[] y) {
+        this.kty = kty;
+        this.alg = alg;
+        this.crv = crv;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Whether the key type and curve are the ones {@link #alg} signs with.
+     * The signature scheme is picked by algorithm and the JCA key by key
+     * type, so a key that fails this could never verify.
+     */
+    boolean matchesAlgorithm() {
+        switch (alg) {
+            case ALG_ES256:
+                return kty == KTY_EC2 && crv == CRV_P256;
+            case ALG_RS256:
+                return kty == KTY_RSA;
+            case ALG_EDDSA:
+                return kty == KTY_OKP && crv == CRV_ED25519;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * JCA name of the signature scheme for {@link #alg}.
+     *
+     * @throws NoSuchAlgorithmException for COSE algorithms WebAuthn clients
+     *         are not asked for here
+     */
+    String signatureAlgorithm() throws NoSuchAlgorithmException {
+        switch (alg) {
+            case ALG_ES256:
+                return "SHA256withECDSA";
+            case ALG_RS256:
+                return "SHA256withRSA";
+            case ALG_EDDSA:
+                return "Ed25519";
+            default:
+                throw new NoSuchAlgorithmException("Unsupported COSE algorithm " + alg);
+        }
+    }
+
+    /**
+     * Builds a JCA public key. Ed25519 needs a provider that supports it
+     * (Java 15+, Android 13+) and fails with a NoSuchAlgorithmException
+     * otherwise.
+     */
+    PublicKey toPublicKey() throws GeneralSecurityException {
+        if (kty == KTY_EC2 && crv == CRV_P256) {
+            if (x == null || y == null || x.length != P256_COORDINATE_LENGTH || y.length != P256_COORDINATE_LENGTH) {
+                throw new GeneralSecurityException("Malformed P-256 key");
+            }
+            byte[] encoded = new byte[P256_SPKI_PREFIX.length + 1 + 2 * P256_COORDINATE_LENGTH];
+            System.arraycopy(P256_SPKI_PREFIX, 0, encoded, 0, P256_SPKI_PREFIX.length);
+            // Uncompressed point
+            encoded[P256_SPKI_PREFIX.length] = 0x04;
+            System.arraycopy(x, 0, encoded, P256_SPKI_PREFIX.length + 1, P256_COORDINATE_LENGTH);
+            System.arraycopy(y, 0, encoded, P256_SPKI_PREFIX.length + 1 + P256_COORDINATE_LENGTH, P256_COORDINATE_LENGTH);
+            return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(encoded));
+        }
+        if (kty == KTY_RSA) {
+            if (x == null || y == null) {
+                throw new GeneralSecurityException("Malformed RSA key");
+            }
+            return KeyFactory.getInstance("RSA").generatePublic(
+                    new RSAPublicKeySpec(new BigInteger(1, x), new BigInteger(1, y)));
+        }
+        if (kty == KTY_OKP && crv == CRV_ED25519) {
+            if (x == null || x.length != ED25519_KEY_LENGTH) {
+                throw new GeneralSecurityException("Malformed Ed25519 key");
+            }
+            byte[] encoded = new byte[ED25519_SPKI_PREFIX.length + ED25519_KEY_LENGTH];
+            System.arraycopy(ED25519_SPKI_PREFIX, 0, encoded, 0, ED25519_SPKI_PREFIX.length);
+            System.arraycopy(x, 0, encoded, ED25519_SPKI_PREFIX.length, ED25519_KEY_LENGTH);
+            return KeyFactory.getInstance("Ed25519").generatePublic(new X509EncodedKeySpec(encoded));
+        }
+        throw new NoSuchAlgorithmException("Unsupported COSE key type " + kty + " with curve " + crv);
+    }
+
+    private static byte[] hex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    static CoseKey read(CborReader reader) throws CborException {
+        int kty = 0;
+        int alg = 0;
+        int crv = 0;
+        byte[] minus1 = null;
+        byte[] minus2 = null;
+        byte[] minus3 = null;
+
+        int entries = reader.readMapStart();
+        for (int i = 0; i < entries; i++) {
+            int keyType = reader.peekMajorType();
+            if (keyType != CborReader.MAJOR_UNSIGNED && keyType != CborReader.MAJOR_NEGATIVE) {
+                reader.skip();
+                reader.skip();
+                continue;
+            }
+
+            long label = reader.readInt();
+            if (label == LABEL_KTY) {
+                kty = (int) reader.readInt();
+            } else if (label == LABEL_ALG) {
+                alg = (int) reader.readInt();
+            } else if (label == -1) {
+                // crv for EC2/OKP keys, n for RSA keys
+                if (reader.peekMajorType() == CborReader.MAJOR_BYTES) {
+                    minus1 = reader.readByteString();
+                } else {
+                    crv = (int) reader.readInt();
+                }
+            } else if (label == -2) {
+                minus2 = reader.readByteString();
+            } else if (label == -3 && reader.peekMajorType() == CborReader.MAJOR_BYTES) {
+                minus3 = reader.readByteString();
+            } else {
+                reader.skip();
+            }
+        }
+
+        if (kty == KTY_RSA) {
+            return new CoseKey(kty, alg, 0, minus1, minus2);
+        }
+        return new CoseKey(kty, alg, crv, minus2, minus3);
+    }
+}
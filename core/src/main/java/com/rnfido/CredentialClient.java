@@ -0,0 +1,13 @@
+package com.rnfido;
+
+/**
+ * Performs the authenticator side of a ceremony. Implementations settle the
+ * ceremony they are handed, either right away or once the platform reports
+ * back, and must not hold on to it afterwards.
+ */
+interface CredentialClient {
+
+    void register(Ceremony ceremony, RegisterRequest request);
+
+    void sign(Ceremony ceremony, SignRequest request);
+}
@@ -0,0 +1,384 @@
+package com.rnfido;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-device index of the credentials this app registered or signed with, so
+ * a sign-in can build its allowList without asking the server first.
+ *
+ * The index is an append-only log of put and remove records, replayed into
+ * an in-memory map on first use. Entries are kept in least recently used
+ * order and capped at {@code maxEntries}; the log is rewritten with only the
+ * live entries once it holds twice as many records as the map. The index is
+ * a cache: I/O errors leave the in-memory state in place and are otherwise
+ * ignored, and a log that cannot be read starts over empty.
+ */
+final class CredentialIndex {
+
+    static final class Entry {
+        final byte[] credentialId;
+        final String rpId;
+        /** May be null when the user handle is not known. */
+        final byte[] userHandle;
+        /** May be null when the transports are not known. */
+        final String[] transports;
+        /** Wall-clock millis of the last successful ceremony. */
+        final long lastUsed;
+
+        Entry(byte[] credentialId, String rpId, byte[] userHandle, String[] transports, long lastUsed) {
+            this.credentialId = credentialId;
+            this.rpId = rpId;
+            this.userHandle = userHandle;
+            this.transports = transports;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final int MAGIC = 0x52464349;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int MIN_COMPACTION_RECORDS = 64;
+
+    private final File file;
+    private final int maxEntries;
+    // Least recently used first; null until the log has been replayed
+    private LinkedHashMap<String, Entry> entries;
+    private final Map<String, CredentialList> allowLists = new HashMap<>();
+    private DataOutputStream out;
+    private int records;
+
+    CredentialIndex(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Replays the log unless that already happened. Every other method loads
+     * on demand, so calling this ahead of time only moves the disk read off
+     * the first sign-in.
+     */
+    synchronized void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>();
+        records = 0;
+        if (!file.exists()) {
+            return;
+        }
+
+        byte[] data;
+        try {
+            data = readFully(file);
+        } catch (IOException e) {
+            data = new byte[0];
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int valid = 0;
+        try {
+            if (data.length >= HEADER_LENGTH && in.readInt() == MAGIC && in.readInt() == VERSION) {
+                valid = HEADER_LENGTH;
+                while (valid < data.length) {
+                    readRecord(in);
+                    records++;
+                    valid = data.length - in.available();
+                }
+            }
+        } catch (IOException e) {
+            // A torn last record from a crash mid-write; keep what came before it
+        }
+
+        if (valid < data.length) {
+            if (valid == 0) {
+                rewrite();
+                return;
+            }
+            truncate(valid);
+        }
+        evictOverflow();
+    }
+
+    /**
+     * Returns the indexed credentials for an RP. The list is shared with later
+     * calls until a credential for the RP is added or removed.
+     */
+    synchronized CredentialList allowList(String rpId) {
+        load();
+        CredentialList allowList = allowLists.get(rpId);
+        if (allowList == null) {
+            List<byte[]> ids = new ArrayList<>();
+            for (Entry entry : entries.values()) {
+                if (entry.rpId.equals(rpId)) {
+                    ids.add(entry.credentialId);
+                }
+            }
+            allowList = ids.isEmpty() ? CredentialList.EMPTY : new CredentialList(ids);
+            allowLists.put(rpId, allowList);
+        }
+        return allowList;
+    }
+
+    /**
+     * Records a successful ceremony. A missing or empty user handle and null
+     * transports keep what is already known about the credential.
+     */
+    synchronized void record(byte[] credentialId, String rpId, byte[] userHandle, String[] transports) {
+        load();
+        String key = Base64Codec.encode(credentialId, false);
+        Entry previous = entries.remove(key);
+        if (previous != null && previous.rpId.equals(rpId)) {
+            if (userHandle == null || userHandle.length == 0) {
+                userHandle = previous.userHandle;
+            }
+            if (transports == null) {
+                transports = previous.transports;
+            }
+        } else {
+            allowLists.remove(rpId);
+            if (previous != null) {
+                allowLists.remove(previous.rpId);
+            }
+        }
+
+        Entry entry = new Entry(credentialId, rpId, userHandle, transports, System.currentTimeMillis());
+        entries.put(key, entry);
+        append(OP_PUT, entry);
+        evictOverflow();
+        compactIfNeeded();
+    }
+
+    synchronized boolean remove(byte[] credentialId) {
+        load();
+        Entry removed = entries.remove(Base64Codec.encode(credentialId, false));
+        if (removed == null) {
+            return false;
+        }
+        allowLists.remove(removed.rpId);
+        append(OP_REMOVE, removed);
+        compactIfNeeded();
+        return true;
+    }
+
+    synchronized List<Entry> entries(String rpId) {
+        load();
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (rpId == null || entry.rpId.equals(rpId)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries = new LinkedHashMap<>();
+        allowLists.clear();
+        rewrite();
+    }
+
+    synchronized void close() {
+        closeOutput();
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            Entry evicted = iterator.next();
+            iterator.remove();
+            allowLists.remove(evicted.rpId);
+            append(OP_REMOVE, evicted);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (records > MIN_COMPACTION_RECORDS && records > 2 * entries.size()) {
+            rewrite();
+        }
+    }
+
+    private void readRecord(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        byte[] credentialId = readBytes(in);
+        if (credentialId == null) {
+            throw new IOException("Missing credential id");
+        }
+        String key = Base64Codec.encode(credentialId, false);
+        if (op == OP_REMOVE) {
+            entries.remove(key);
+            return;
+        }
+        if (op != OP_PUT) {
+            throw new IOException("Unknown record type " + op);
+        }
+
+        String rpId = in.readUTF();
+        byte[] userHandle = readBytes(in);
+        int transportCount = in.readByte();
+        String[] transports = null;
+        if (transportCount >= 0) {
+            transports = new String[transportCount];
+            for (int i = 0; i < transportCount; i++) {
+                transports[i] = in.readUTF();
+            }
+        }
+        long lastUsed = in.readLong();
+        entries.remove(key);
+        entries.put(key, new Entry(credentialId, rpId, userHandle, transports, lastUsed));
+    }
+
+    private static void writeRecord(DataOutputStream out, byte op, Entry entry) throws IOException {
+        out.writeByte(op);
+        writeBytes(out, entry.credentialId);
+        if (op == OP_REMOVE) {
+            return;
+        }
+        out.writeUTF(entry.rpId);
+        writeBytes(out, entry.userHandle);
+        if (entry.transports == null) {
+            out.writeByte(-1);
+        } else {
+            out.writeByte(entry.transports.length);
+            for (String transport : entry.transports) {
+                out.writeUTF(transport);
+            }
+        }
+        out.writeLong(entry.lastUsed);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeShort(-1);
+            return;
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private void append(byte op, Entry entry) {
+        try {
+            if (out == null) {
+                if (!file.exists() || file.length() < HEADER_LENGTH) {
+                    rewrite();
+                    if (out == null) {
+                        return;
+                    }
+                } else {
+                    out = openForAppend();
+                }
+            }
+            writeRecord(out, op, entry);
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            closeOutput();
+        }
+    }
+
+    /**
+     * Writes the live entries to a fresh log and swaps it in with a rename,
+     * so a crash leaves either the old or the new log behind.
+     */
+    private void rewrite() {
+        closeOutput();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                compacted.writeInt(MAGIC);
+                compacted.writeInt(VERSION);
+                for (Entry entry : entries.values()) {
+                    writeRecord(compacted, OP_PUT, entry);
+                }
+            } finally {
+                compacted.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            records = entries.size();
+            out = openForAppend();
+        } catch (IOException e) {
+            temp.delete();
+            closeOutput();
+        }
+    }
+
+    private void truncate(int length) {
+        try {
+            RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+            try {
+                truncated.setLength(length);
+            } finally {
+                truncated.close();
+            }
+        } catch (IOException e) {
+            rewrite();
+        }
+    }
+
+    private DataOutputStream openForAppend() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Nothing left to flush that we could still save
+            }
+            out = null;
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                read += count;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
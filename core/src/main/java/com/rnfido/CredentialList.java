@@ -0,0 +1,38 @@
+package com.rnfido;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decoded credential ids of an allow or exclude list. Instances are shared
+ * across calls by {@link CredentialListCache}, so the ids must not be
+ * modified. A credential client can attach its own prebuilt descriptors to
+ * avoid rebuilding them for every request with the same list.
+ */
+final class CredentialList {
+
+    static final CredentialList EMPTY = new CredentialList(Collections.<byte[]>emptyList());
+
+    final List<byte[]> ids;
+    private volatile Object descriptors;
+
+    CredentialList(List<byte[]> ids) {
+        this.ids = Collections.unmodifiableList(ids);
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    Object getDescriptors() {
+        return descriptors;
+    }
+
+    /**
+     * Racing clients may both build and attach descriptors; either result is
+     * equivalent, so the last one simply wins.
+     */
+    void setDescriptors(Object descriptors) {
+        this.descriptors = descriptors;
+    }
+}
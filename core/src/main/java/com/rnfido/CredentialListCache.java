@@ -0,0 +1,136 @@
+package com.rnfido;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of decoded credential lists keyed by the encoded handles the JS
+ * side sends. Relying parties send the same allowList on every login, so a
+ * hit skips decoding every handle and rebuilding the platform descriptors.
+ *
+ * Lookups are keyed by a 64-bit FNV-1a digest of the handles; the handles
+ * themselves are kept with each entry and compared on a hit, so a digest
+ * collision only costs a miss. The cache is bounded both by entry count and
+ * by the total size of the decoded ids.
+ */
+final class CredentialListCache {
+
+    // Rough per-entry and per-id overhead on top of the raw id bytes
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int ID_OVERHEAD = 32;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final class Entry {
+        final List<String> handles;
+        final CredentialList credentials;
+        final int weight;
+
+        Entry(List<String> handles, CredentialList credentials, int weight) {
+            this.handles = handles;
+            this.credentials = credentials;
+            this.weight = weight;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+
+    CredentialListCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the decoded list for the given encoded handles, decoding and
+     * caching it on a miss.
+     *
+     * @throws IllegalArgumentException if a handle is not valid base64
+     */
+    CredentialList get(List<Object> keyHandles) {
+        if (keyHandles.isEmpty()) {
+            return CredentialList.EMPTY;
+        }
+
+        Long key = digest(keyHandles);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.handles.equals(keyHandles)) {
+                hits++;
+                return entry.credentials;
+            }
+            misses++;
+        }
+
+        // Decode outside the lock; a concurrent miss for the same list just decodes twice
+        CredentialList credentials = new CredentialList(RequestOptions.decodeCredentialIds(keyHandles));
+        List<String> handles = new ArrayList<>(keyHandles.size());
+        int entryWeight = ENTRY_OVERHEAD;
+        for (int i = 0; i < keyHandles.size(); i++) {
+            String handle = (String) keyHandles.get(i);
+            handles.add(handle);
+            entryWeight += ID_OVERHEAD + handle.length() + credentials.ids.get(i).length;
+        }
+        if (entryWeight > maxWeight) {
+            return credentials;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(handles, credentials, entryWeight));
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += entryWeight;
+            evict();
+        }
+        return credentials;
+    }
+
+    synchronized void invalidate() {
+        entries.clear();
+        weight = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && iterator.hasNext()) {
+            weight -= iterator.next().getValue().weight;
+            iterator.remove();
+        }
+    }
+
+    static long digest(List<Object> keyHandles) {
+        long hash = FNV_OFFSET_BASIS;
+        for (Object keyHandle : keyHandles) {
+            String handle = (String) keyHandle;
+            for (int i = 0; i < handle.length(); i++) {
+                hash ^= handle.charAt(i);
+                hash *= FNV_PRIME;
+            }
+            // Separator so ["ab", "c"] and ["a", "bc"] digest differently
+            hash ^= 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,44 @@
+package com.rnfido;
+
+import java.util.List;
+
+/**
+ * Platform-neutral description of a credential creation request.
+ */
+final class RegisterRequest {
+
+    final String rpId;
+    final String rpName;
+    final String rpIcon;
+    final byte[] userId;
+    final String userName;
+    final String userIcon;
+    final String userDisplayName;
+    final byte[] challenge;
+    final CredentialList excludeList;
+    final List<RequestOptions.Algorithm> algorithms;
+    final double timeoutSeconds;
+    /** One of the {@code RequestOptions.ATTESTATION_*} values. */
+    final String attestationPreference;
+    /** One of the {@code RequestOptions.ATTACHMENT_*} values, or null for any. */
+    final String attachment;
+
+    RegisterRequest(String rpId, String rpName, String rpIcon,
+                    byte[] userId, String userName, String userIcon, String userDisplayName,
+                    byte[] challenge, CredentialList excludeList, List<RequestOptions.Algorithm> algorithms,
+                    RequestOptions options) {
+        this.rpId = rpId;
+        this.rpName = rpName;
+        this.rpIcon = rpIcon;
+        this.userId = userId;
+        this.userName = userName;
+        this.userIcon = userIcon;
+        this.userDisplayName = userDisplayName;
+        this.challenge = challenge;
+        this.excludeList = excludeList;
+        this.algorithms = algorithms;
+        this.timeoutSeconds = options.timeoutSeconds;
+        this.attestationPreference = options.attestationPreference;
+        this.attachment = options.attachment;
+    }
+}
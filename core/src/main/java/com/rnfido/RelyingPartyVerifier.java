@@ -0,0 +1,326 @@
+package com.rnfido;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Local relying party checks for registration and authentication responses
+ * (WebAuthn sections 7.1 and 7.2): client data type, challenge, origin and
+ * cross-origin use, RP ID hash, user presence and verification flags, the
+ * attested credential's id and algorithm, signature counter and the ES256,
+ * RS256 or EdDSA signature over the assertion.
+ *
+ * Attestation statements are not verified; registration yields the
+ * credential the authenticator claims, as with "none" attestation. The
+ * verifier is immutable and safe to share between threads.
+ */
+final class RelyingPartyVerifier {
+
+    static final String REASON_MALFORMED = "malformed";
+    static final String REASON_TYPE = "type";
+    static final String REASON_CHALLENGE = "challenge";
+    static final String REASON_ORIGIN = "origin";
+    static final String REASON_CROSS_ORIGIN = "crossOrigin";
+    static final String REASON_RP_ID = "rpId";
+    static final String REASON_USER_PRESENCE = "userPresence";
+    static final String REASON_USER_VERIFICATION = "userVerification";
+    static final String REASON_CREDENTIAL = "credential";
+    static final String REASON_ALGORITHM = "algorithm";
+    static final String REASON_SIGN_COUNT = "signCount";
+    static final String REASON_UNSUPPORTED_ALGORITHM = "unsupportedAlgorithm";
+    static final String REASON_SIGNATURE = "signature";
+
+    /** Assertions handed to one worker at a time by {@link #verifyAll}. */
+    private static final int BATCH_SIZE = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static final class AssertionCheck {
+        final Assertion assertion;
+        final byte[] challenge;
+        final StoredCredential credential;
+        final boolean appIdUsed;
+
+        AssertionCheck(Assertion assertion, byte[] challenge, StoredCredential credential) {
+            this(assertion, challenge, credential, false);
+        }
+
+        AssertionCheck(Assertion assertion, byte[] challenge, StoredCredential credential, boolean appIdUsed) {
+            this.assertion = assertion;
+            this.challenge = challenge;
+            this.credential = credential;
+            this.appIdUsed = appIdUsed;
+        }
+    }
+
+    static final class Result {
+        /** New signature counter to store, when {@link #error} is null. */
+        final long signCount;
+        final VerificationException error;
+
+        Result(long signCount, VerificationException error) {
+            this.signCount = signCount;
+            this.error = error;
+        }
+
+        boolean isValid() {
+            return error == null;
+        }
+    }
+
+    private final byte[] rpIdHash;
+    private final byte[] appIdHash;
+    private final Set<String> origins;
+    private final boolean requireUserVerification;
+    private final boolean allowCrossOrigin;
+
+    RelyingPartyVerifier(String rpId, String appId, Collection<String> origins, boolean requireUserVerification) {
+        this(rpId, appId, origins, requireUserVerification, false);
+    }
+
+    /**
+     * @param appId legacy U2F AppID the sign requests asked for with the
+     *              appid extension, or null
+     * @param origins accepted {@code clientDataJSON} origins, e.g.
+     *                "https://example.com" or "android:apk-key-hash:..."
+     * @param allowCrossOrigin whether responses from a cross-origin iframe
+     *                         ({@code "crossOrigin":true}) are accepted
+     */
+    RelyingPartyVerifier(String rpId, String appId, Collection<String> origins, boolean requireUserVerification,
+                         boolean allowCrossOrigin) {
+        this.rpIdHash = sha256(rpId.getBytes(UTF_8));
+        this.appIdHash = appId == null ? null : sha256(appId.getBytes(UTF_8));
+        this.origins = Collections.unmodifiableSet(new HashSet<>(origins));
+        this.requireUserVerification = requireUserVerification;
+        this.allowCrossOrigin = allowCrossOrigin;
+    }
+
+    /**
+     * Checks a registration response and returns the credential to store.
+     *
+     * @param algorithms the {@code pubKeyCredParams} the request offered; the
+     *                   credential must use one of them
+     */
+    StoredCredential verifyAttestation(Attestation attestation, byte[] challenge,
+                                       List<RequestOptions.Algorithm> algorithms) throws VerificationException {
+        verifyClientData(attestation.clientDataJSON, ClientData.TYPE_CREATE, challenge);
+
+        AttestationObject attestationObject;
+        try {
+            attestationObject = AttestationObject.parse(attestation.attestationObject);
+        } catch (CborException e) {
+            throw new VerificationException(REASON_MALFORMED, e.getMessage(), e);
+        }
+        AuthenticatorData authData = attestationObject.authData;
+        if (!MessageDigest.isEqual(rpIdHash, authData.rpIdHash)) {
+            throw new VerificationException(REASON_RP_ID, "RP ID hash does not match");
+        }
+        verifyFlags(authData);
+        if (authData.publicKey == null) {
+            throw new VerificationException(REASON_MALFORMED, "No attested credential data");
+        }
+        if (attestation.keyHandle == null || !MessageDigest.isEqual(attestation.keyHandle, authData.credentialId)) {
+            throw new VerificationException(REASON_CREDENTIAL, "Key handle does not match the attested credential id");
+        }
+
+        CoseKey publicKey = authData.publicKey;
+        if (!isRequested(publicKey.alg, algorithms)) {
+            throw new VerificationException(REASON_ALGORITHM, "Algorithm " + publicKey.alg + " was not requested");
+        }
+        StoredCredential credential = new StoredCredential(authData.credentialId, publicKey, authData.signCount);
+        try {
+            publicKey.signatureAlgorithm();
+            if (!publicKey.matchesAlgorithm()) {
+                throw new VerificationException(REASON_MALFORMED, "Key type " + publicKey.kty + " with curve "
+                        + publicKey.crv + " cannot be used with algorithm " + publicKey.alg);
+            }
+            credential.verificationKey();
+        } catch (NoSuchAlgorithmException e) {
+            throw new VerificationException(REASON_UNSUPPORTED_ALGORITHM, e.getMessage(), e);
+        } catch (GeneralSecurityException e) {
+            throw new VerificationException(REASON_MALFORMED, e.getMessage(), e);
+        }
+        return credential;
+    }
+
+    long verifyAssertion(Assertion assertion, byte[] challenge, StoredCredential credential)
+            throws VerificationException {
+        return verifyAssertion(assertion, challenge, credential, false);
+    }
+
+    /**
+     * Checks an authentication response against a stored credential and
+     * returns the signature counter to store for it.
+     *
+     * @param appIdUsed whether the client reported the appid extension as
+     *                  used, in which case the authenticator data must carry
+     *                  the AppID hash instead of the RP ID hash
+     */
+    long verifyAssertion(Assertion assertion, byte[] challenge, StoredCredential credential, boolean appIdUsed)
+            throws VerificationException {
+        if (assertion.keyHandle != null && !MessageDigest.isEqual(assertion.keyHandle, credential.credentialId)) {
+            throw new VerificationException(REASON_CREDENTIAL, "Assertion is for a different credential");
+        }
+        verifyClientData(assertion.clientDataJSON, ClientData.TYPE_GET, challenge);
+
+        AuthenticatorData authData;
+        try {
+            authData = AuthenticatorData.parse(assertion.authenticatorData);
+        } catch (CborException e) {
+            throw new VerificationException(REASON_MALFORMED, e.getMessage(), e);
+        }
+        if (appIdUsed && appIdHash == null) {
+            throw new VerificationException(REASON_RP_ID, "The appid extension was not requested");
+        }
+        if (!MessageDigest.isEqual(appIdUsed ? appIdHash : rpIdHash, authData.rpIdHash)) {
+            throw new VerificationException(REASON_RP_ID, appIdUsed ? "AppID hash does not match" : "RP ID hash does not match");
+        }
+        verifyFlags(authData);
+
+        // Counters that stay at zero mean the authenticator does not implement them
+        if ((authData.signCount != 0 || credential.signCount != 0) && authData.signCount <= credential.signCount) {
+            throw new VerificationException(REASON_SIGN_COUNT, "Signature counter went from "
+                    + credential.signCount + " to " + authData.signCount + ", the credential may be cloned");
+        }
+
+        verifySignature(assertion, credential);
+        return authData.signCount;
+    }
+
+    /**
+     * Verifies many assertions on the given executor. Results are in the
+     * order of the checks; a check that cannot be evaluated at all, e.g.
+     * because a field is missing, fails on its own as malformed. Every check
+     * is verified against the credential state it carries, so several
+     * assertions for one credential in a single batch are each compared with
+     * the same stored counter.
+     */
+    List<Result> verifyAll(final List<AssertionCheck> checks, ExecutorService executor) throws InterruptedException {
+        List<Callable<Result[]>> batches = new ArrayList<>((checks.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+        for (int start = 0; start < checks.size(); start += BATCH_SIZE) {
+            final int from = start;
+            final int to = Math.min(start + BATCH_SIZE, checks.size());
+            batches.add(new Callable<Result[]>() {
+                @Override
+                public Result[] call() {
+                    Result[] results = new Result[to - from];
+                    for (int i = from; i < to; i++) {
+                        results[i - from] = verify(checks.get(i));
+                    }
+                    return results;
+                }
+            });
+        }
+
+        List<Result> results = new ArrayList<>(checks.size());
+        for (Future<Result[]> batch : executor.invokeAll(batches)) {
+            try {
+                Collections.addAll(results, batch.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private Result verify(AssertionCheck check) {
+        try {
+            return new Result(verifyAssertion(check.assertion, check.challenge, check.credential, check.appIdUsed), null);
+        } catch (VerificationException e) {
+            return new Result(check.credential.signCount, e);
+        } catch (RuntimeException e) {
+            return new Result(check.credential == null ? 0 : check.credential.signCount,
+                    new VerificationException(REASON_MALFORMED, String.valueOf(e.getMessage()), e));
+        }
+    }
+
+    private void verifyClientData(byte[] clientDataJSON, String type, byte[] challenge) throws VerificationException {
+        ClientData clientData;
+        byte[] clientChallenge;
+        try {
+            clientData = ClientData.parse(clientDataJSON);
+            clientChallenge = clientData.challenge == null ? null : Base64Codec.decode(clientData.challenge);
+        } catch (IllegalArgumentException e) {
+            throw new VerificationException(REASON_MALFORMED, e.getMessage(), e);
+        }
+
+        if (!type.equals(clientData.type)) {
+            throw new VerificationException(REASON_TYPE, "Expected client data of type " + type);
+        }
+        if (clientChallenge == null || !MessageDigest.isEqual(challenge, clientChallenge)) {
+            throw new VerificationException(REASON_CHALLENGE, "Challenge does not match");
+        }
+        if (!origins.contains(clientData.origin)) {
+            throw new VerificationException(REASON_ORIGIN, "Unexpected origin " + clientData.origin);
+        }
+        if (clientData.crossOrigin && !allowCrossOrigin) {
+            throw new VerificationException(REASON_CROSS_ORIGIN, "Cross-origin responses are not accepted");
+        }
+    }
+
+    private static boolean isRequested(int alg, List<RequestOptions.Algorithm> algorithms) {
+        for (RequestOptions.Algorithm algorithm : algorithms) {
+            if (algorithm.alg == alg && RequestOptions.PUBLIC_KEY.equals(algorithm.type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void verifyFlags(AuthenticatorData authData) throws VerificationException {
+        if (!authData.hasFlag(AuthenticatorData.FLAG_USER_PRESENT)) {
+            throw new VerificationException(REASON_USER_PRESENCE, "User was not present");
+        }
+        if (requireUserVerification && !authData.hasFlag(AuthenticatorData.FLAG_USER_VERIFIED)) {
+            throw new VerificationException(REASON_USER_VERIFICATION, "User was not verified");
+        }
+    }
+
+    private static void verifySignature(Assertion assertion, StoredCredential credential) throws VerificationException {
+        boolean valid;
+        try {
+            Signature verifier = Signature.getInstance(credential.publicKey.signatureAlgorithm());
+            verifier.initVerify(credential.verificationKey());
+            verifier.update(assertion.authenticatorData);
+            verifier.update(sha256(assertion.clientDataJSON));
+            valid = verifier.verify(assertion.signature);
+        } catch (NoSuchAlgorithmException e) {
+            throw new VerificationException(REASON_UNSUPPORTED_ALGORITHM, e.getMessage(), e);
+        } catch (GeneralSecurityException e) {
+            // Includes signatures that are not even well-formed DER
+            valid = false;
+        }
+        if (!valid) {
+            throw new VerificationException(REASON_SIGNATURE, "Signature does not verify");
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest.digest(data);
+    }
+}
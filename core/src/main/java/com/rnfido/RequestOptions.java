@@ -0,0 +1,109 @@
+package com.rnfido;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The {@code requestOptions} and {@code params} arguments of
+ * {@code signFido2}/{@code registerFido2}, normalised from the plain maps
+ * and lists the bridge hands over.
+ */
+final class RequestOptions {
+
+    static final String ATTESTATION_NONE = "none";
+    static final String ATTESTATION_INDIRECT = "indirect";
+    static final String ATTESTATION_DIRECT = "direct";
+
+    static final String ATTACHMENT_PLATFORM = "platform";
+    static final String ATTACHMENT_CROSS_PLATFORM = "cross-platform";
+
+    static final String PUBLIC_KEY = "public-key";
+    static final double DEFAULT_TIMEOUT_SECONDS = 60d;
+
+    static final class Algorithm {
+        final String type;
+        final int alg;
+
+        Algorithm(String type, int alg) {
+            this.type = type;
+            this.alg = alg;
+        }
+    }
+
+    final double timeoutSeconds;
+    final String attestationPreference;
+    final String attachment;
+    final boolean useAppId;
+
+    private RequestOptions(double timeoutSeconds, String attestationPreference, String attachment, boolean useAppId) {
+        this.timeoutSeconds = timeoutSeconds;
+        this.attestationPreference = attestationPreference;
+        this.attachment = attachment;
+        this.useAppId = useAppId;
+    }
+
+    static RequestOptions parse(Map<String, Object> options) {
+        double timeout = 0d;
+        Object rawTimeout = options.get("timeout");
+        if (rawTimeout instanceof Number) {
+            timeout = ((Number) rawTimeout).doubleValue();
+        }
+        if (timeout <= 0d) {
+            timeout = DEFAULT_TIMEOUT_SECONDS;
+        }
+
+        String attestation = lowerCase(options.get("attestationPreference"));
+        if (ATTESTATION_DIRECT.equals(attestation)) {
+            attestation = ATTESTATION_DIRECT;
+        } else if (attestation == null || attestation.isEmpty() || ATTESTATION_NONE.equals(attestation)) {
+            attestation = ATTESTATION_NONE;
+        } else {
+            attestation = ATTESTATION_INDIRECT;
+        }
+
+        String authenticatorType = lowerCase(options.get("authenticatorType"));
+        String attachment = null;
+        if ("crossplatform".equals(authenticatorType) || ATTACHMENT_CROSS_PLATFORM.equals(authenticatorType)) {
+            attachment = ATTACHMENT_CROSS_PLATFORM;
+        } else if (ATTACHMENT_PLATFORM.equals(authenticatorType)) {
+            attachment = ATTACHMENT_PLATFORM;
+        }
+
+        return new RequestOptions(timeout, attestation, attachment, Boolean.TRUE.equals(options.get("appId")));
+    }
+
+    /**
+     * Maps the {@code params} list of {@code {type, alg}} entries to
+     * credential parameters, defaulting the type to public-key.
+     */
+    static List<Algorithm> parseAlgorithms(List<Object> params) {
+        List<Algorithm> algorithms = new ArrayList<>(params.size());
+        for (Object entry : params) {
+            if (!(entry instanceof Map)) {
+                continue;
+            }
+            Map<?, ?> param = (Map<?, ?>) entry;
+            Object type = param.get("type");
+            Object alg = param.get("alg");
+            if (!(alg instanceof Number)) {
+                continue;
+            }
+            algorithms.add(new Algorithm(type instanceof String ? (String) type : PUBLIC_KEY, ((Number) alg).intValue()));
+        }
+        return algorithms;
+    }
+
+    static List<byte[]> decodeCredentialIds(List<Object> keyHandles) {
+        List<byte[]> credentialIds = new ArrayList<>(keyHandles.size());
+        for (Object keyHandle : keyHandles) {
+            credentialIds.add(Base64Codec.decode((String) keyHandle));
+        }
+        return credentialIds;
+    }
+
+    private static String lowerCase(Object value) {
+        return value instanceof String ? ((String) value).toLowerCase(Locale.US) : null;
+    }
+}
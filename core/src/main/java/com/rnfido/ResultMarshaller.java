@@ -0,0 +1,87 @@
+package com.rnfido;
+
+/**
+ * Writes ceremony results in the shape the JS layer expects.
+ *
+ * The raw bytes are always written. When they cannot be decoded the parsed
+ * members are left out and {@code parseError} says why.
+ */
+final class ResultMarshaller {
+
+    /** Padded URL-safe output, the historical wire format. */
+    static final ResultMarshaller PADDED = new ResultMarshaller(true);
+    /** Canonical unpadded base64url output. */
+    static final ResultMarshaller BASE64URL = new ResultMarshaller(false);
+
+    private final boolean padding;
+
+    private ResultMarshaller(boolean padding) {
+        this.padding = padding;
+    }
+
+    String encode(byte[] bytes) {
+        return Base64Codec.encode(bytes, padding);
+    }
+
+    void writeAssertion(Assertion assertion, ResultWriter response) {
+        if (assertion.extensions != null) {
+            response.putString("extensions", encode(assertion.extensions));
+        }
+        response.putString("clientDataJSON", encode(assertion.clientDataJSON));
+        // Legacy alias: sign results have always carried the authenticator data under
+        // attestationObject too. Existing callers read it from there, so it stays.
+        String authenticatorData = encode(assertion.authenticatorData);
+        response.putString("authenticatorData", authenticatorData);
+        response.putString("attestationObject", authenticatorData);
+        try {
+            ResultWriter parsed = response.createMap();
+            writeAuthenticatorData(AuthenticatorData.parse(assertion.authenticatorData), parsed);
+            response.putMap("parsedAuthenticatorData", parsed);
+        } catch (CborException e) {
+            response.putString("parseError", e.getMessage());
+        }
+        // id and rawId carry the same bytes, so encode the key handle once
+        String keyHandle = encode(assertion.keyHandle);
+        response.putString("id", keyHandle);
+        response.putString("rawId", keyHandle);
+        response.putString("signature", encode(assertion.signature));
+        if (assertion.userHandle != null) {
+            response.putString("userHandle", encode(assertion.userHandle));
+        }
+    }
+
+    void writeAttestation(Attestation attestation, ResultWriter response) {
+        byte[] attestationObject = attestation.attestationObject;
+        response.putString("clientDataJSON", encode(attestation.clientDataJSON));
+        response.putString("attestationObject", encode(attestationObject));
+        try {
+            AttestationObject parsed = AttestationObject.parse(attestationObject);
+            ResultWriter parsedAuthData = response.createMap();
+            writeAuthenticatorData(parsed.authData, parsedAuthData);
+            response.putString("fmt", parsed.fmt);
+            response.putString("authenticatorData",
+                    Base64Codec.encode(attestationObject, parsed.authDataOffset, parsed.authDataLength, padding));
+            response.putMap("parsedAuthenticatorData", parsedAuthData);
+        } catch (CborException e) {
+            response.putString("parseError", e.getMessage());
+        }
+        String keyHandle = encode(attestation.keyHandle);
+        response.putString("id", keyHandle);
+        response.putString("rawId", keyHandle);
+    }
+
+    void writeAuthenticatorData(AuthenticatorData authData, ResultWriter map) {
+        map.putString("rpIdHash", encode(authData.rpIdHash));
+        map.putInt("flags", authData.flags);
+        map.putBoolean("userPresent", authData.hasFlag(AuthenticatorData.FLAG_USER_PRESENT));
+        map.putBoolean("userVerified", authData.hasFlag(AuthenticatorData.FLAG_USER_VERIFIED));
+        // The counter is an unsigned 32-bit value and may not fit in an int
+        map.putDouble("signCount", authData.signCount);
+        if (authData.credentialId != null) {
+            map.putString("aaguid", encode(authData.aaguid));
+            map.putString("credentialId", encode(authData.credentialId));
+            map.putString("credentialPublicKey", encode(authData.credentialPublicKey));
+            map.putInt("publicKeyAlgorithm", authData.publicKey.alg);
+        }
+    }
+}
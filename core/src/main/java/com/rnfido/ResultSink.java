@@ -0,0 +1,12 @@
+package com.rnfido;
+
+/**
+ * Receives the outcome of a ceremony. On Android this wraps a bridge
+ * {@code Promise}; on a plain JVM it can be anything that records results.
+ */
+interface ResultSink {
+
+    void resolve(Object value);
+
+    void reject(String code, String message);
+}
@@ -0,0 +1,20 @@
+package com.rnfido;
+
+/**
+ * Minimal map builder that ceremony results are marshalled into, so the same
+ * marshalling code can target a bridge {@code WritableMap} or a plain map.
+ */
+interface ResultWriter {
+
+    ResultWriter createMap();
+
+    void putString(String key, String value);
+
+    void putInt(String key, int value);
+
+    void putDouble(String key, double value);
+
+    void putBoolean(String key, boolean value);
+
+    void putMap(String key, ResultWriter value);
+}
@@ -0,0 +1,99 @@
+package com.rnfido;
+
+import java.util.Map;
+
+/**
+ * Relying party, user and AppID configuration shared by every ceremony.
+ *
+ * Instances are immutable: updates return a new snapshot which the module
+ * publishes in one volatile write, and each ceremony reads the snapshot once
+ * when its request is built, so a configuration change never tears a
+ * ceremony that is already in flight.
+ */
+final class SessionConfig {
+
+    static final SessionConfig EMPTY = new SessionConfig(null, null, null, null, null, null, null, null, null);
+
+    final String appIcon;
+    final String rpId;
+    final String rpName;
+    final String rpIcon;
+    final String appId;
+    final byte[] userId;
+    final String userName;
+    final String userIcon;
+    final String userDisplayName;
+
+    private SessionConfig(String appIcon, String rpId, String rpName, String rpIcon, String appId,
+                          byte[] userId, String userName, String userIcon, String userDisplayName) {
+        this.appIcon = appIcon;
+        this.rpId = rpId;
+        this.rpName = rpName;
+        this.rpIcon = rpIcon;
+        this.appId = appId;
+        this.userId = userId;
+        this.userName = userName;
+        this.userIcon = userIcon;
+        this.userDisplayName = userDisplayName;
+    }
+
+    boolean hasRpId() {
+        return rpId != null && !rpId.isEmpty();
+    }
+
+    SessionConfig withAppIcon(String icon) {
+        return new SessionConfig(icon, rpId, rpName, rpIcon, appId, userId, userName, userIcon, userDisplayName);
+    }
+
+    /**
+     * Falls back to the app icon when no RP icon is given.
+     */
+    SessionConfig withRp(String id, String name, String icon) {
+        if (icon == null || icon.isEmpty()) {
+            icon = appIcon;
+        }
+        return new SessionConfig(appIcon, id, name, icon, appId, userId, userName, userIcon, userDisplayName);
+    }
+
+    SessionConfig withAppId(String url) {
+        return new SessionConfig(appIcon, rpId, rpName, rpIcon, url, userId, userName, userIcon, userDisplayName);
+    }
+
+    SessionConfig withUser(byte[] id, String name, String icon, String displayName) {
+        return new SessionConfig(appIcon, rpId, rpName, rpIcon, appId, id, name, icon, displayName);
+    }
+
+    /**
+     * Applies the keys present in a {@code session} map on top of this
+     * snapshot. Recognised keys are {@code appIcon}, {@code appId},
+     * {@code rp: {id, name, icon}} and
+     * {@code user: {id, name, icon, displayName}} with a base64 user id.
+     *
+     * @throws IllegalArgumentException if the user id is not valid base64
+     */
+    @SuppressWarnings("unchecked")
+    SessionConfig merge(Map<String, Object> session) {
+        SessionConfig result = this;
+        if (session.containsKey("appIcon")) {
+            result = result.withAppIcon((String) session.get("appIcon"));
+        }
+        if (session.containsKey("appId")) {
+            result = result.withAppId((String) session.get("appId"));
+        }
+
+        Object rp = session.get("rp");
+        if (rp instanceof Map) {
+            Map<String, Object> entity = (Map<String, Object>) rp;
+            result = result.withRp((String) entity.get("id"), (String) entity.get("name"), (String) entity.get("icon"));
+        }
+
+        Object user = session.get("user");
+        if (user instanceof Map) {
+            Map<String, Object> entity = (Map<String, Object>) user;
+            String id = (String) entity.get("id");
+            result = result.withUser(id == null ? null : Base64Codec.decode(id), (String) entity.get("name"),
+                    (String) entity.get("icon"), (String) entity.get("displayName"));
+        }
+        return result;
+    }
+}
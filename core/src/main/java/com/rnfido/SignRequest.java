@@ -0,0 +1,22 @@
+package com.rnfido;
+
+/**
+ * Platform-neutral description of an assertion request.
+ */
+final class SignRequest {
+
+    final String rpId;
+    /** Legacy U2F AppID to send as the appid extension, or null. */
+    final String appId;
+    final byte[] challenge;
+    final CredentialList allowList;
+    final double timeoutSeconds;
+
+    SignRequest(String rpId, String appId, byte[] challenge, CredentialList allowList, double timeoutSeconds) {
+        this.rpId = rpId;
+        this.appId = appId;
+        this.challenge = challenge;
+        this.allowList = allowList;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+}
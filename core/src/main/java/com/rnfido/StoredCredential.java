@@ -0,0 +1,42 @@
+package com.rnfido;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+
+/**
+ * What a relying party keeps about a registered credential: its id, public
+ * key and the last signature counter it saw. Instances are immutable; a
+ * successful assertion yields the new counter to store via
+ * {@link #withSignCount}.
+ */
+final class StoredCredential {
+
+    final byte[] credentialId;
+    final CoseKey publicKey;
+    final long signCount;
+    private volatile PublicKey verificationKey;
+
+    StoredCredential(byte[] credentialId, CoseKey publicKey, long signCount) {
+        this.credentialId = credentialId;
+        this.publicKey = publicKey;
+        this.signCount = signCount;
+    }
+
+    StoredCredential withSignCount(long newSignCount) {
+        StoredCredential updated = new StoredCredential(credentialId, publicKey, newSignCount);
+        updated.verificationKey = verificationKey;
+        return updated;
+    }
+
+    /**
+     * Converts the COSE key once and reuses it for every later verification.
+     */
+    PublicKey verificationKey() throws GeneralSecurityException {
+        PublicKey key = verificationKey;
+        if (key == null) {
+            key = publicKey.toPublicKey();
+            verificationKey = key;
+        }
+        return key;
+    }
+}
@@ -0,0 +1,135 @@
+package com.rnfido;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide trace of ceremony events for support cases.
+ *
+ * Events are fixed-size numeric records (time, event, ceremony id and one
+ * int argument) written into a lock-free ring buffer of {@link #CAPACITY}
+ * entries, so tracing never builds strings or allocates; text is only
+ * produced by {@link #dump()}. Events above the current level are dropped
+ * after a single volatile read.
+ */
+final class Tracer {
+
+    static final int OFF = 0;
+    static final int ERROR = 1;
+    static final int INFO = 2;
+    static final int DEBUG = 3;
+
+    /** Argument: ceremony type. */
+    static final int EVENT_SUBMITTED = 0;
+    /** Argument: ceremony type. */
+    static final int EVENT_THROTTLED = 1;
+    /** Argument: {@code CeremonyMetrics.PHASE_*} that just ended. */
+    static final int EVENT_PHASE = 2;
+    /** Argument: activity result code. */
+    static final int EVENT_ACTIVITY_RESULT = 3;
+    /** Argument: Fido2 error code. */
+    static final int EVENT_AUTHENTICATOR_ERROR = 4;
+    /** Argument: {@code CeremonyMetrics.OUTCOME_*}. */
+    static final int EVENT_SETTLED = 5;
+    private static final String[] EVENT_NAMES = {
+            "submitted", "throttled", "phase", "activityResult", "authenticatorError", "settled"
+    };
+
+    static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+
+    // Each record is four longs: sequence + 1 (0 while being written), time,
+    // ceremony id and the event in the high half with its argument in the low half
+    private static final int STRIDE = 4;
+    private static final AtomicLongArray RECORDS = new AtomicLongArray(CAPACITY * STRIDE);
+    private static final AtomicLong CURSOR = new AtomicLong();
+
+    private static volatile int level = INFO;
+
+    private Tracer() {
+    }
+
+    static boolean isEnabled(int atLevel) {
+        return atLevel <= level;
+    }
+
+    static int getLevel() {
+        return level;
+    }
+
+    /**
+     * @throws IllegalArgumentException for levels outside OFF..DEBUG
+     */
+    static void setLevel(int newLevel) {
+        if (newLevel < OFF || newLevel > DEBUG) {
+            throw new IllegalArgumentException("Trace level must be between " + OFF + " and " + DEBUG);
+        }
+        level = newLevel;
+    }
+
+    static void trace(int atLevel, int event, long ceremonyId, int argument) {
+        if (atLevel > level) {
+            return;
+        }
+        long sequence = CURSOR.getAndIncrement();
+        int base = (int) (sequence & MASK) * STRIDE;
+        RECORDS.set(base, 0);
+        // Ordered stores: each one becomes visible only after the ones before it
+        RECORDS.lazySet(base + 1, System.nanoTime());
+        RECORDS.lazySet(base + 2, ceremonyId);
+        RECORDS.lazySet(base + 3, ((long) event << 32) | (argument & 0xffffffffL));
+        RECORDS.lazySet(base, sequence + 1);
+    }
+
+    /**
+     * Renders the buffered events oldest first, one per line, with times in
+     * milliseconds relative to the oldest event. Records overwritten or
+     * being written while the dump runs are skipped.
+     */
+    static String dump() {
+        long end = CURSOR.get();
+        long start = Math.max(0, end - CAPACITY);
+        StringBuilder builder = new StringBuilder((int) (end - start) * 48);
+        long origin = -1;
+        for (long sequence = start; sequence < end; sequence++) {
+            int base = (int) (sequence & MASK) * STRIDE;
+            if (RECORDS.get(base) != sequence + 1) {
+                continue;
+            }
+            long time = RECORDS.get(base + 1);
+            long ceremonyId = RECORDS.get(base + 2);
+            long packed = RECORDS.get(base + 3);
+            // A writer lapping the buffer clears the sequence before touching the fields
+            if (RECORDS.get(base) != sequence + 1) {
+                continue;
+            }
+            if (origin < 0) {
+                origin = time;
+            }
+
+            int event = (int) (packed >>> 32);
+            int argument = (int) packed;
+            builder.append(String.format(Locale.US, "%10.3f #%d %s %s%n", (time - origin) / 1000000d, ceremonyId,
+                    event < EVENT_NAMES.length ? EVENT_NAMES[event] : String.valueOf(event), describe(event, argument)));
+        }
+        return builder.toString();
+    }
+
+    private static String describe(int event, int argument) {
+        switch (event) {
+            case EVENT_SUBMITTED:
+            case EVENT_THROTTLED:
+                return argument < CeremonyMetrics.TYPE_NAMES.length
+                        ? CeremonyMetrics.TYPE_NAMES[argument] : String.valueOf(argument);
+            case EVENT_PHASE:
+                return argument < CeremonyMetrics.PHASES
+                        ? CeremonyMetrics.PHASE_NAMES[argument] : String.valueOf(argument);
+            case EVENT_SETTLED:
+                return argument < CeremonyMetrics.OUTCOMES
+                        ? CeremonyMetrics.OUTCOME_NAMES[argument] : String.valueOf(argument);
+            default:
+                return String.valueOf(argument);
+        }
+    }
+}
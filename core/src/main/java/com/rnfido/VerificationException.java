@@ -0,0 +1,23 @@
+package com.rnfido;
+
+/**
+ * Thrown by {@link RelyingPartyVerifier} when a credential response fails a
+ * relying party check. {@link #reason} is one of the
+ * {@code RelyingPartyVerifier.REASON_*} values.
+ */
+class VerificationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    final String reason;
+
+    VerificationException(String reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    VerificationException(String reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+}
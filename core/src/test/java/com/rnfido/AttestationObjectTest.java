@@ -0,0 +1,157 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class AttestationObjectTest {
+
+    @Test
+    public void decodesRecordedAttestations() throws Exception {
+        int[][] expected = {
+                // kty, alg, crv
+                {CoseKey.KTY_EC2, CoseKey.ALG_ES256, CoseKey.CRV_P256},
+                {CoseKey.KTY_RSA, CoseKey.ALG_RS256, 0},
+                {CoseKey.KTY_OKP, CoseKey.ALG_EDDSA, CoseKey.CRV_ED25519},
+        };
+        for (int i = 0; i < Fixtures.ALGORITHMS.length; i++) {
+            String algorithm = Fixtures.ALGORITHMS[i];
+            AttestationObject parsed = AttestationObject.parse(Fixtures.bytes(algorithm + ".attestation.attestationObject"));
+            AuthenticatorData authData = parsed.authData;
+
+            assertEquals(algorithm, i == 0 ? "packed" : "none", parsed.fmt);
+            assertArrayEquals(rpIdHash(), authData.rpIdHash);
+            assertTrue(authData.hasFlag(AuthenticatorData.FLAG_USER_PRESENT));
+            assertTrue(authData.hasFlag(AuthenticatorData.FLAG_ATTESTED_CREDENTIAL_DATA));
+            assertEquals(0, authData.signCount);
+            assertArrayEquals(Fixtures.bytes(algorithm + ".keyHandle"), authData.credentialId);
+            assertEquals(16, authData.aaguid.length);
+            assertEquals(expected[i][0], authData.publicKey.kty);
+            assertEquals(expected[i][1], authData.publicKey.alg);
+            assertEquals(expected[i][2], authData.publicKey.crv);
+            assertNotNull(authData.publicKey.toPublicKey());
+        }
+    }
+
+    @Test
+    public void locatesAuthenticatorDataInPlace() throws CborException {
+        byte[] data = Fixtures.bytes("es256.attestation.attestationObject");
+        AttestationObject parsed = AttestationObject.parse(data);
+
+        byte[] authData = Arrays.copyOfRange(data, parsed.authDataOffset, parsed.authDataOffset + parsed.authDataLength);
+        assertArrayEquals(parsed.authData.credentialPublicKey,
+                Arrays.copyOfRange(authData, authData.length - parsed.authData.credentialPublicKey.length, authData.length));
+        assertEquals(parsed.authData.credentialId.length, AuthenticatorData.parse(authData).credentialId.length);
+    }
+
+    @Test
+    public void decodesRecordedAssertions() throws Exception {
+        for (String algorithm : Fixtures.ALGORITHMS) {
+            AuthenticatorData authData = AuthenticatorData.parse(Fixtures.bytes(algorithm + ".assertion.authenticatorData"));
+
+            assertArrayEquals(rpIdHash(), authData.rpIdHash);
+            assertTrue(authData.hasFlag(AuthenticatorData.FLAG_USER_PRESENT));
+            assertTrue(authData.hasFlag(AuthenticatorData.FLAG_USER_VERIFIED));
+            assertFalse(authData.hasFlag(AuthenticatorData.FLAG_ATTESTED_CREDENTIAL_DATA));
+            assertEquals(1, authData.signCount);
+            assertNull(authData.credentialId);
+            assertNull(authData.publicKey);
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedAttestationObject() {
+        byte[] data = Fixtures.bytes("eddsa.attestation.attestationObject");
+        for (int length : new int[]{0, 1, 20, data.length - 1}) {
+            assertRejected(Arrays.copyOf(data, length));
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedAuthenticatorData() {
+        byte[] authData = Fixtures.bytes("es256.assertion.authenticatorData");
+        try {
+            AuthenticatorData.parse(Arrays.copyOf(authData, authData.length - 1));
+            fail("Expected a CborException");
+        } catch (CborException e) {
+            assertTrue(e.getMessage().contains("expected at least 37"));
+        }
+    }
+
+    @Test
+    public void rejectsTrailingBytes() {
+        byte[] data = Fixtures.bytes("rs256.attestation.attestationObject");
+        assertRejected(Arrays.copyOf(data, data.length + 1), "trailing bytes after attestation object");
+
+        byte[] authData = Fixtures.bytes("rs256.assertion.authenticatorData");
+        try {
+            AuthenticatorData.parse(Arrays.copyOf(authData, authData.length + 2));
+            fail("Expected a CborException");
+        } catch (CborException e) {
+            assertTrue(e.getMessage().contains("2 trailing bytes"));
+        }
+    }
+
+    @Test
+    public void rejectsIndefiniteLengthAttestationStatement() {
+        String hex = Fixtures.string("eddsa.attestation.attestationObject");
+        // "attStmt" followed by an empty definite map, replaced by an empty indefinite one
+        String attStmt = "6761747453746d74";
+        assertTrue(hex.contains(attStmt + "a0"));
+        assertRejected(Fixtures.hex(hex.replace(attStmt + "a0", attStmt + "bfff")), "Indefinite-length");
+    }
+
+    @Test
+    public void rejectsMissingAuthenticatorData() {
+        byte[] data = new CborWriter()
+                .writeMapStart(1)
+                .writeTextString("fmt").writeTextString("none")
+                .toByteArray();
+        assertRejected(data, "missing fmt or authData");
+    }
+
+    @Test
+    public void rejectsMalformedCoseKey() throws CborException {
+        byte[] cose = new CborWriter()
+                .writeMapStart(4)
+                .writeInt(1).writeInt(CoseKey.KTY_EC2)
+                .writeInt(3).writeInt(CoseKey.ALG_ES256)
+                .writeInt(-1).writeInt(CoseKey.CRV_P256)
+                .writeInt(-2).writeByteString(new byte[32])
+                .toByteArray();
+        CoseKey key = CoseKey.read(new CborReader(cose));
+        try {
+            key.toPublicKey();
+            fail("Expected a GeneralSecurityException");
+        } catch (GeneralSecurityException e) {
+            assertEquals("Malformed P-256 key", e.getMessage());
+        }
+    }
+
+    private static void assertRejected(byte[] data) {
+        assertRejected(data, "");
+    }
+
+    private static void assertRejected(byte[] data, String message) {
+        try {
+            AttestationObject.parse(data);
+            fail("Expected a CborException");
+        } catch (CborException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static byte[] rpIdHash() throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(Fixtures.RP_ID.getBytes("UTF-8"));
+    }
+}
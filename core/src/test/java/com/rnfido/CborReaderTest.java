@@ -0,0 +1,104 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class CborReaderTest {
+
+    @Test
+    public void readsDefiniteLengthItems() throws CborException {
+        byte[] data = new CborWriter()
+                .writeMapStart(2)
+                .writeInt(1).writeInt(-257)
+                .writeTextString("id").writeByteString(new byte[]{1, 2, 3})
+                .toByteArray();
+
+        CborReader reader = new CborReader(data);
+        assertEquals(2, reader.readMapStart());
+        assertEquals(1, reader.readInt());
+        assertEquals(-257, reader.readInt());
+        assertEquals("id", reader.readTextString());
+        assertArrayEquals(new byte[]{1, 2, 3}, reader.readByteString());
+        assertFalse(reader.hasMore());
+    }
+
+    @Test
+    public void skipsNestedContainers() throws CborException {
+        byte[] data = new CborWriter()
+                .writeArrayStart(2)
+                .writeMapStart(1).writeTextString("a").writeArrayStart(1).writeInt(24)
+                .writeByteString(new byte[300])
+                .writeInt(7)
+                .toByteArray();
+
+        CborReader reader = new CborReader(data);
+        reader.skip();
+        assertEquals(7, reader.readInt());
+        assertFalse(reader.hasMore());
+    }
+
+    @Test
+    public void skipsNegativeFloat64() throws CborException {
+        // {"a": -1.5, "b": 1}
+        byte[] data = Fixtures.hex("a26161fbbff8000000000000616201");
+
+        CborReader reader = new CborReader(data);
+        assertEquals(2, reader.readMapStart());
+        assertEquals("a", reader.readTextString());
+        reader.skip();
+        assertEquals("b", reader.readTextString());
+        assertEquals(1, reader.readInt());
+        assertFalse(reader.hasMore());
+    }
+
+    @Test
+    public void rejectsTruncatedInput() {
+        // Byte string of length 5 with only 2 bytes of content
+        assertRejected(Fixtures.hex("450102"), "exceeds input");
+        // Two-byte argument cut off after the first byte
+        assertRejected(Fixtures.hex("19ff"), "Unexpected end");
+        // Map that promises more entries than there are bytes
+        assertRejected(Fixtures.hex("b8ff01"), "Unexpected end");
+    }
+
+    @Test
+    public void rejectsIndefiniteLengthInput() {
+        assertRejected(Fixtures.hex("5f4101ff"), "Indefinite-length");
+        assertRejected(Fixtures.hex("9f01ff"), "Indefinite-length");
+        assertRejected(Fixtures.hex("bf616101ff"), "Indefinite-length");
+    }
+
+    @Test
+    public void rejectsReservedAdditionalInfo() {
+        assertRejected(Fixtures.hex("1c"), "Reserved additional info 28");
+    }
+
+    @Test
+    public void rejectsIntegersThatDoNotFitInALong() {
+        assertRejected(Fixtures.hex("1bffffffffffffffff"), "Integer out of range");
+    }
+
+    @Test
+    public void rejectsDeepNesting() {
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            hex.append("81");
+        }
+        hex.append("00");
+        assertRejected(Fixtures.hex(hex.toString()), "nesting too deep");
+    }
+
+    private static void assertRejected(byte[] data, String message) {
+        try {
+            new CborReader(data).skip();
+            fail("Expected a CborException");
+        } catch (CborException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}
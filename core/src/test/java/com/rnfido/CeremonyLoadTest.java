@@ -0,0 +1,186 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Drives thousands of simulated ceremonies through the registry against the
+ * {@link FakeAuthenticator}, which settles every ceremony on the calling
+ * thread.
+ */
+public class CeremonyLoadTest {
+
+    private static final String ORIGIN = "https://example.com";
+    private static final int QUEUED = 5000;
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 1000;
+
+    private final byte[] challenge = new byte[32];
+
+    @Test
+    public void queuedCeremoniesSettleInOrderOnAFlatStack() throws Throwable {
+        final CeremonyRegistry registry = new CeremonyRegistry(1, QUEUED);
+        final CeremonyEngine engine = new CeremonyEngine(registry, new FakeAuthenticator(ORIGIN));
+        final byte[] credentialId = register(engine).credentialId;
+        final List<Object> settled = Collections.synchronizedList(new ArrayList<>());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // A small stack makes sure starting queued ceremonies does not recurse
+        Thread driver = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Ceremony blocker = registry.submit(Ceremony.SIGN, 60, sink(settled, -1), new CeremonyRegistry.Starter() {
+                        @Override
+                        public void start(Ceremony ceremony) {
+                            // Held until every other ceremony is queued behind it
+                        }
+                    });
+                    for (int i = 0; i < QUEUED; i++) {
+                        engine.sign(signRequest(credentialId), sink(settled, i));
+                    }
+                    assertEquals(QUEUED + 1, registry.size());
+                    blocker.resolve(null);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "load-driver", 256 * 1024);
+        driver.start();
+        driver.join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        assertEquals(QUEUED + 1, settled.size());
+        assertEquals(-1, settled.get(0));
+        for (int i = 0; i < QUEUED; i++) {
+            assertEquals(i, settled.get(i + 1));
+        }
+        assertEquals(0, registry.size());
+        assertEquals((double) QUEUED + 1, outcomes(registry).get("success"));
+    }
+
+    @Test
+    public void concurrentCeremoniesAreEachSettledOnce() throws Exception {
+        final CeremonyRegistry registry = new CeremonyRegistry(4, 16);
+        final CeremonyEngine engine = new CeremonyEngine(registry, new FakeAuthenticator(ORIGIN));
+        StoredCredential credential = register(engine);
+        final byte[] credentialId = credential.credentialId;
+        final AtomicInteger[] settleCounts = new AtomicInteger[THREADS * PER_THREAD];
+        final Object[] results = new Object[THREADS * PER_THREAD];
+        final AtomicInteger throttled = new AtomicInteger();
+
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t * PER_THREAD;
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = first; i < first + PER_THREAD; i++) {
+                        final int index = i;
+                        settleCounts[index] = new AtomicInteger();
+                        engine.sign(signRequest(credentialId), new ResultSink() {
+                            @Override
+                            public void resolve(Object value) {
+                                settleCounts[index].incrementAndGet();
+                                results[index] = value;
+                            }
+
+                            @Override
+                            public void reject(String code, String message) {
+                                settleCounts[index].incrementAndGet();
+                                results[index] = code;
+                                if (CeremonyRegistry.E_TOO_MANY_REQUESTS.equals(code)) {
+                                    throttled.incrementAndGet();
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+
+        List<RelyingPartyVerifier.AssertionCheck> checks = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            assertEquals("ceremony " + i, 1, settleCounts[i].get());
+            if (results[i] instanceof Assertion) {
+                Assertion assertion = (Assertion) results[i];
+                assertArrayEquals(credentialId, assertion.keyHandle);
+                checks.add(new RelyingPartyVerifier.AssertionCheck(assertion, challenge, credential));
+            } else {
+                assertEquals(CeremonyRegistry.E_TOO_MANY_REQUESTS, results[i]);
+            }
+        }
+        assertEquals(0, registry.size());
+        Map<?, ?> outcomes = outcomes(registry);
+        assertEquals((double) checks.size(), outcomes.get("success"));
+        assertEquals((double) throttled.get(), outcomes.get("rejected"));
+        assertEquals(results.length, checks.size() + throttled.get());
+
+        // Every simulated assertion is a real one
+        ExecutorService verifiers = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (RelyingPartyVerifier.Result result : verifier().verifyAll(checks, verifiers)) {
+                assertTrue(result.isValid());
+            }
+        } finally {
+            verifiers.shutdown();
+        }
+    }
+
+    private StoredCredential register(CeremonyEngine engine) throws VerificationException {
+        List<Object> settled = new ArrayList<>();
+        List<RequestOptions.Algorithm> algorithms =
+                Collections.singletonList(new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_ES256));
+        engine.register(new RegisterRequest(Fixtures.RP_ID, "Example", null, new byte[16], "user", null, "User",
+                challenge, CredentialList.EMPTY, algorithms, RequestOptions.parse(Collections.<String, Object>emptyMap())),
+                sink(settled, 0));
+        assertEquals(1, settled.size());
+        return verifier().verifyAttestation((Attestation) settled.get(0), challenge, algorithms);
+    }
+
+    private static RelyingPartyVerifier verifier() {
+        return new RelyingPartyVerifier(Fixtures.RP_ID, null, Collections.singletonList(ORIGIN), true);
+    }
+
+    private SignRequest signRequest(byte[] credentialId) {
+        return new SignRequest(Fixtures.RP_ID, null, challenge,
+                new CredentialList(Collections.singletonList(credentialId)), 60);
+    }
+
+    private static ResultSink sink(final List<Object> settled, final int index) {
+        return new ResultSink() {
+            @Override
+            public void resolve(Object value) {
+                settled.add(value instanceof Attestation ? value : index);
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                settled.add(code + ": " + message);
+            }
+        };
+    }
+
+    private static Map<?, ?> outcomes(CeremonyRegistry registry) {
+        MapResultWriter metrics = new MapResultWriter();
+        registry.metrics.write(metrics);
+        return (Map<?, ?>) ((Map<?, ?>) metrics.map.get("sign")).get("outcomes");
+    }
+}
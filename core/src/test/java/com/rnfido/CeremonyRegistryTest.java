@@ -0,0 +1,202 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CeremonyRegistryTest {
+
+    private final List<String> events = new ArrayList<>();
+
+    @Test
+    public void throwingStarterFreesItsRequestCode() {
+        CeremonyRegistry registry = new CeremonyRegistry(1, 1);
+        registry.submit(Ceremony.REGISTER, 60, sink("a"), new CeremonyRegistry.Starter() {
+            @Override
+            public void start(Ceremony ceremony) {
+                throw new NullPointerException("rp");
+            }
+        });
+        registry.submit(Ceremony.REGISTER, 60, sink("b"), starter("b"));
+
+        assertEquals(Arrays.asList("a rejected " + CeremonyRegistry.E_INVALID_REQUEST, "b started"), events);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void rejectAllDoesNotStartQueuedCeremonies() {
+        CeremonyRegistry registry = new CeremonyRegistry(1, 2);
+        registry.submit(Ceremony.SIGN, 60, sink("a"), starter("a"));
+        registry.submit(Ceremony.SIGN, 60, sink("b"), starter("b"));
+        registry.submit(Ceremony.SIGN, 60, sink("c"), starter("c"));
+
+        registry.rejectAll("E_DESTROYED", "gone");
+
+        assertEquals(Arrays.asList("a started", "b rejected E_DESTROYED", "c rejected E_DESTROYED",
+                "a rejected E_DESTROYED"), events);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void throwingSinkFreesItsRequestCode() {
+        CeremonyRegistry registry = new CeremonyRegistry(1, 2);
+        Ceremony resolved = registry.submit(Ceremony.SIGN, 60, throwingSink(), starter("a"));
+        int requestCode = resolved.getRequestCode();
+        registry.submit(Ceremony.SIGN, 60, throwingSink(), starter("b"));
+        registry.submit(Ceremony.SIGN, 60, sink("c"), starter("c"));
+
+        try {
+            resolved.resolve(null);
+            fail("Expected the sink's exception");
+        } catch (IllegalStateException expected) {
+            // E.g. the marshaller or the promise failing
+        }
+        assertNull(registry.get(requestCode));
+        assertEquals(Arrays.asList("a started", "b started"), events);
+
+        Ceremony rejected = registry.get(CeremonyRegistry.REQUEST_CODE_BASE + 1);
+        try {
+            rejected.reject("E_LAUNCH_FAILED", "launch");
+            fail("Expected the sink's exception");
+        } catch (IllegalStateException expected) {
+            // As above
+        }
+        assertEquals(Arrays.asList("a started", "b started", "c started"), events);
+        assertEquals(1, registry.size());
+        assertEquals(2d, outcome(registry, "success") + outcome(registry, "error"), 0);
+    }
+
+    @Test
+    public void successorsStartOnTheStartExecutor() throws Exception {
+        ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "worker");
+            }
+        });
+        try {
+            CeremonyRegistry registry = new CeremonyRegistry(1, 1);
+            registry.setStartExecutor(worker);
+            final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch started = new CountDownLatch(2);
+            CeremonyRegistry.Starter recordThread = new CeremonyRegistry.Starter() {
+                @Override
+                public void start(Ceremony ceremony) {
+                    threads.add(Thread.currentThread().getName());
+                    started.countDown();
+                }
+            };
+            final Ceremony first = registry.submit(Ceremony.SIGN, 60, sink("a"), recordThread);
+            registry.submit(Ceremony.SIGN, 60, sink("b"), recordThread);
+
+            // Settled from another thread, e.g. the main thread failing to launch it
+            Thread settler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    first.reject("E_LAUNCH_FAILED", "launch");
+                }
+            }, "main");
+            settler.start();
+            settler.join();
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("worker", "worker"), threads);
+            assertEquals(1, registry.size());
+        } finally {
+            worker.shutdown();
+        }
+    }
+
+    @Test
+    public void buildPhaseStartsAtTheRequest() {
+        final long[] now = {1000};
+        CeremonyMetrics metrics = new CeremonyMetrics();
+        final long[][] phases = new long[1][];
+        metrics.setListener(new CeremonyMetrics.Listener() {
+            @Override
+            public void onCeremonyFinished(int type, int outcome, long[] phaseNanos) {
+                phases[0] = phaseNanos.clone();
+            }
+        });
+        CeremonyRegistry registry = new CeremonyRegistry(new Clock() {
+            @Override
+            public long nanoTime() {
+                return now[0];
+            }
+        }, metrics, 1, 0);
+
+        // Requested at 400, parsed until 1000
+        Ceremony ceremony = registry.submit(Ceremony.SIGN, 400, 60, sink("a"), starter("a"));
+        now[0] = 1050;
+        ceremony.mark(CeremonyMetrics.PHASE_BUILD);
+        now[0] = 1100;
+        ceremony.mark(CeremonyMetrics.PHASE_PENDING_INTENT);
+        now[0] = 2000;
+        ceremony.mark(CeremonyMetrics.PHASE_USER);
+        ceremony.resolve(null);
+
+        assertEquals(0, phases[0][CeremonyMetrics.PHASE_QUEUE]);
+        assertEquals(650, phases[0][CeremonyMetrics.PHASE_BUILD]);
+        assertEquals(50, phases[0][CeremonyMetrics.PHASE_PENDING_INTENT]);
+        assertEquals(900, phases[0][CeremonyMetrics.PHASE_USER]);
+        assertEquals(1600, phases[0][CeremonyMetrics.PHASE_TOTAL]);
+    }
+
+    private CeremonyRegistry.Starter starter(final String name) {
+        return new CeremonyRegistry.Starter() {
+            @Override
+            public void start(Ceremony ceremony) {
+                events.add(name + " started");
+            }
+        };
+    }
+
+    private static double outcome(CeremonyRegistry registry, String name) {
+        MapResultWriter metrics = new MapResultWriter();
+        registry.metrics.write(metrics);
+        Map<?, ?> sign = (Map<?, ?>) metrics.map.get("sign");
+        return (Double) ((Map<?, ?>) sign.get("outcomes")).get(name);
+    }
+
+    private static ResultSink throwingSink() {
+        return new ResultSink() {
+            @Override
+            public void resolve(Object value) {
+                throw new IllegalStateException("resolve");
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                throw new IllegalStateException("reject");
+            }
+        };
+    }
+
+    private ResultSink sink(final String name) {
+        return new ResultSink() {
+            @Override
+            public void resolve(Object value) {
+                events.add(name + " resolved");
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                events.add(name + " rejected " + code);
+            }
+        };
+    }
+}
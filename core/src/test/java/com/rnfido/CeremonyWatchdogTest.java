@@ -0,0 +1,89 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CeremonyWatchdogTest {
+
+    private static final CeremonyRegistry.Starter HANG = new CeremonyRegistry.Starter() {
+        @Override
+        public void start(Ceremony ceremony) {
+        }
+    };
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private CeremonyRegistry registry;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        registry = new CeremonyRegistry(4, 4);
+        registry.setWatchdog(new CeremonyWatchdog(scheduler, 0));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void rejectsHungCeremonies() throws InterruptedException {
+        final CountDownLatch settled = new CountDownLatch(1);
+        final AtomicReference<String> code = new AtomicReference<>();
+        registry.submit(Ceremony.SIGN, 0.05, new ResultSink() {
+            @Override
+            public void resolve(Object value) {
+                settled.countDown();
+            }
+
+            @Override
+            public void reject(String rejected, String message) {
+                code.set(rejected);
+                settled.countDown();
+            }
+        }, HANG);
+
+        assertTrue(settled.await(5, TimeUnit.SECONDS));
+        assertEquals(CeremonyWatchdog.E_TIMEOUT, code.get());
+    }
+
+    @Test
+    public void cancelsTheCheckWhenTheCeremonySettles() {
+        Ceremony ceremony = registry.submit(Ceremony.REGISTER, 60, new NullSink(), HANG);
+        assertEquals(1, scheduler.getQueue().size());
+
+        ceremony.resolve(null);
+        assertEquals(0, scheduler.getQueue().size());
+    }
+
+    @Test
+    public void cancelsTheCheckWhenTheCeremonySettledWhileStarting() {
+        registry.submit(Ceremony.SIGN, 60, new NullSink(), new CeremonyRegistry.Starter() {
+            @Override
+            public void start(Ceremony ceremony) {
+                ceremony.reject("E_TEST", "settled right away");
+            }
+        });
+        assertEquals(0, scheduler.getQueue().size());
+    }
+
+    private static final class NullSink implements ResultSink {
+        @Override
+        public void resolve(Object value) {
+        }
+
+        @Override
+        public void reject(String code, String message) {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class ClientDataTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void readsRecordedClientData() {
+        ClientData web = ClientData.parse(Fixtures.bytes("es256.assertion.clientDataJSON"));
+        assertEquals(ClientData.TYPE_GET, web.type);
+        assertEquals(Base64Codec.encode(Fixtures.bytes("signChallenge"), false), web.challenge);
+        assertEquals("https://example.com", web.origin);
+        assertFalse(web.crossOrigin);
+
+        // Carries androidPackageName, which is skipped
+        ClientData android = ClientData.parse(Fixtures.bytes("rs256.attestation.clientDataJSON"));
+        assertEquals(ClientData.TYPE_CREATE, android.type);
+        assertEquals(Fixtures.string("rs256.origin"), android.origin);
+    }
+
+    @Test
+    public void skipsNestedMembersAndDecodesEscapes() {
+        ClientData clientData = parse(" {\"tokenBinding\":{\"status\":\"present\",\"id\":[1,\"}\"]},"
+                + "\"origin\":\"https:\\/\\/example.com\",\"crossOrigin\":true,\"type\":\"webauthn.\\u0067et\"} \n");
+        assertEquals("https://example.com", clientData.origin);
+        assertEquals(ClientData.TYPE_GET, clientData.type);
+        assertTrue(clientData.crossOrigin);
+    }
+
+    @Test
+    public void rejectsTrailingData() {
+        assertRejected("{\"type\":\"webauthn.get\"}}");
+        assertRejected("{\"type\":\"webauthn.get\"} {}");
+        assertRejected("{\"type\":\"webauthn.get\"}\u0000");
+    }
+
+    @Test
+    public void rejectsTruncatedInput() {
+        assertRejected("");
+        assertRejected("{\"type\":\"webauthn.get\"");
+        assertRejected("{\"type\":\"webauthn.get");
+        assertRejected("{\"challenge\":\"\\u00");
+    }
+
+    private static ClientData parse(String json) {
+        return ClientData.parse(json.getBytes(UTF_8));
+    }
+
+    private static void assertRejected(String json) {
+        try {
+            parse(json);
+            fail("Expected an IllegalArgumentException for " + json);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("clientDataJSON"));
+        }
+    }
+}
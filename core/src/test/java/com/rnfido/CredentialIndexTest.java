@@ -0,0 +1,214 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CredentialIndexTest {
+
+    private static final String RP_ID = "example.com";
+    private static final byte[] USER = {1, 2, 3};
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "credentials.idx");
+    }
+
+    @Test
+    public void entriesSurviveAReload() {
+        CredentialIndex index = new CredentialIndex(file, 10);
+        index.record(id(1), RP_ID, USER, new String[]{"internal"});
+        index.record(id(2), "other.example", null, null);
+        // A sign result without user handle or transports keeps both
+        index.record(id(1), RP_ID, null, null);
+        index.close();
+
+        CredentialIndex reloaded = new CredentialIndex(file, 10);
+        assertEquals(2, reloaded.size());
+        CredentialIndex.Entry entry = reloaded.entries(RP_ID).get(0);
+        assertArrayEquals(id(1), entry.credentialId);
+        assertArrayEquals(USER, entry.userHandle);
+        assertArrayEquals(new String[]{"internal"}, entry.transports);
+        assertEquals(1, reloaded.allowList(RP_ID).size());
+        assertNull(reloaded.entries("other.example").get(0).userHandle);
+    }
+
+    @Test
+    public void tornLastRecordIsDropped() throws IOException {
+        CredentialIndex index = new CredentialIndex(file, 10);
+        index.record(id(1), RP_ID, USER, null);
+        index.record(id(2), RP_ID, USER, null);
+        long intact = file.length();
+        index.record(id(3), RP_ID, USER, null);
+        index.close();
+        truncate(file.length() - 3);
+
+        CredentialIndex reloaded = new CredentialIndex(file, 10);
+        assertEquals(2, reloaded.size());
+        assertEquals(intact, file.length());
+
+        // New records go after the last intact one
+        reloaded.record(id(4), RP_ID, USER, null);
+        reloaded.close();
+        assertEquals(3, new CredentialIndex(file, 10).size());
+    }
+
+    @Test
+    public void unreadableLogStartsOver() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[]{'n', 'o', 't', ' ', 'a', 'n', ' ', 'i', 'n', 'd', 'e', 'x'});
+        } finally {
+            out.close();
+        }
+
+        CredentialIndex index = new CredentialIndex(file, 10);
+        assertEquals(0, index.size());
+        assertSame(CredentialList.EMPTY, index.allowList(RP_ID));
+        index.record(id(1), RP_ID, USER, null);
+        index.close();
+        assertEquals(1, new CredentialIndex(file, 10).size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        CredentialIndex index = new CredentialIndex(file, 3);
+        index.record(id(1), RP_ID, USER, null);
+        index.record(id(2), RP_ID, USER, null);
+        index.record(id(3), RP_ID, USER, null);
+        assertEquals(3, index.allowList(RP_ID).size());
+        index.record(id(1), RP_ID, USER, null);
+        index.record(id(4), RP_ID, USER, null);
+
+        assertEquals(3, index.size());
+        assertEquals(ids(3, 1, 4), credentialIds(index));
+        assertEquals(3, index.allowList(RP_ID).size());
+        index.close();
+
+        CredentialIndex reloaded = new CredentialIndex(file, 3);
+        assertEquals(ids(3, 1, 4), credentialIds(reloaded));
+        reloaded.close();
+
+        // A smaller cap applies to a log written under a larger one
+        assertEquals(ids(1, 4), credentialIds(new CredentialIndex(file, 2)));
+    }
+
+    @Test
+    public void logIsCompactedOnceMostRecordsAreStale() {
+        CredentialIndex index = new CredentialIndex(file, 10);
+        index.record(id(1), RP_ID, USER, null);
+        long single = file.length();
+        for (int i = 0; i < 1000; i++) {
+            index.record(id(2), RP_ID, USER, null);
+        }
+        assertTrue(index.remove(id(2)));
+        index.close();
+
+        assertTrue(file.length() < 200 * single);
+        assertEquals(ids(1), credentialIds(new CredentialIndex(file, 10)));
+    }
+
+    @Test
+    public void clearEmptiesTheLog() {
+        CredentialIndex index = new CredentialIndex(file, 10);
+        index.record(id(1), RP_ID, USER, null);
+        index.clear();
+        assertEquals(0, index.size());
+        assertSame(CredentialList.EMPTY, index.allowList(RP_ID));
+        index.close();
+        assertEquals(0, new CredentialIndex(file, 10).size());
+    }
+
+    @Test
+    public void ceremoniesAreRecordedAfterTheCallerIsSettled() {
+        final List<Runnable> tasks = new ArrayList<>();
+        CredentialIndex index = new CredentialIndex(file, 10);
+        CeremonyRegistry registry = new CeremonyRegistry(1, 0);
+        CeremonyEngine engine = new CeremonyEngine(registry, new FakeAuthenticator("https://" + RP_ID));
+        engine.setCredentialIndex(index, new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        final List<Object> results = new ArrayList<>();
+        ResultSink sink = new ResultSink() {
+            @Override
+            public void resolve(Object value) {
+                results.add(value);
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                throw new AssertionError(code + ": " + message);
+            }
+        };
+
+        engine.register(new RegisterRequest(RP_ID, "Example", null, USER, "user", null, "User", new byte[32],
+                CredentialList.EMPTY, Collections.singletonList(
+                        new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_ES256)),
+                RequestOptions.parse(Collections.<String, Object>emptyMap())), sink);
+
+        // Settled and released, with the index write still queued
+        assertEquals(1, results.size());
+        assertEquals(0, registry.size());
+        assertEquals(0, index.size());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        CredentialIndex.Entry entry = index.entries(RP_ID).get(0);
+        assertArrayEquals(((Attestation) results.get(0)).keyHandle, entry.credentialId);
+        assertArrayEquals(USER, entry.userHandle);
+        index.close();
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] id(int value) {
+        byte[] id = new byte[16];
+        id[0] = (byte) value;
+        return id;
+    }
+
+    private static List<Integer> ids(Integer... values) {
+        List<Integer> ids = new ArrayList<>();
+        Collections.addAll(ids, values);
+        return ids;
+    }
+
+    private static List<Integer> credentialIds(CredentialIndex index) {
+        List<Integer> ids = new ArrayList<>();
+        for (CredentialIndex.Entry entry : index.entries(null)) {
+            ids.add((int) entry.credentialId[0]);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,70 @@
+package com.rnfido;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Recorded credential responses from {@code fixtures.properties}.
+ */
+final class Fixtures {
+
+    static final String RP_ID = "example.com";
+    static final String[] ALGORITHMS = {"es256", "rs256", "eddsa"};
+
+    private static final Properties VALUES = load();
+
+    private Fixtures() {
+    }
+
+    static byte[] bytes(String name) {
+        return hex(string(name));
+    }
+
+    static String string(String name) {
+        String value = VALUES.getProperty(name);
+        if (value == null) {
+            throw new IllegalArgumentException("No fixture named " + name);
+        }
+        return value;
+    }
+
+    static Attestation attestation(String algorithm) {
+        return new Attestation(bytes(algorithm + ".keyHandle"),
+                bytes(algorithm + ".attestation.clientDataJSON"),
+                bytes(algorithm + ".attestation.attestationObject"),
+                null);
+    }
+
+    static Assertion assertion(String algorithm) {
+        return new Assertion(bytes(algorithm + ".keyHandle"),
+                bytes(algorithm + ".assertion.clientDataJSON"),
+                bytes(algorithm + ".assertion.authenticatorData"),
+                bytes(algorithm + ".assertion.signature"),
+                null,
+                null);
+    }
+
+    static byte[] hex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        InputStream in = Fixtures.class.getResourceAsStream("fixtures.properties");
+        try {
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,405 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class RelyingPartyVerifierTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String APP_ID = "https://example.com/appid.json";
+    private static final List<String> ORIGINS =
+            Arrays.asList(Fixtures.string("es256.origin"), Fixtures.string("rs256.origin"));
+    private static final List<RequestOptions.Algorithm> ALL_ALGORITHMS = Arrays.asList(
+            new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_ES256),
+            new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_RS256),
+            new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_EDDSA));
+    private static final int FLAGS_OFFSET = 32;
+
+    private final RelyingPartyVerifier verifier = new RelyingPartyVerifier(Fixtures.RP_ID, null, ORIGINS, true);
+    private final byte[] registrationChallenge = Fixtures.bytes("registrationChallenge");
+    private final byte[] signChallenge = Fixtures.bytes("signChallenge");
+
+    @Test
+    public void verifiesRecordedCeremonies() throws VerificationException {
+        int[] algs = {CoseKey.ALG_ES256, CoseKey.ALG_RS256, CoseKey.ALG_EDDSA};
+        for (int i = 0; i < Fixtures.ALGORITHMS.length; i++) {
+            String algorithm = Fixtures.ALGORITHMS[i];
+            StoredCredential credential = register(algorithm);
+            assertArrayEquals(Fixtures.bytes(algorithm + ".keyHandle"), credential.credentialId);
+            assertEquals(algs[i], credential.publicKey.alg);
+            assertEquals(0, credential.signCount);
+
+            assertEquals(1, verifier.verifyAssertion(Fixtures.assertion(algorithm), signChallenge, credential));
+        }
+    }
+
+    @Test
+    public void rejectsClientDataOfTheWrongType() {
+        Attestation attestation = Fixtures.attestation("es256");
+        Attestation swapped = new Attestation(attestation.keyHandle,
+                Fixtures.bytes("es256.assertion.clientDataJSON"), attestation.attestationObject, null);
+        assertAttestationRejected(RelyingPartyVerifier.REASON_TYPE, swapped, ALL_ALGORITHMS);
+    }
+
+    @Test
+    public void rejectsAnotherChallenge() {
+        try {
+            verifier.verifyAttestation(Fixtures.attestation("es256"), signChallenge, ALL_ALGORITHMS);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_CHALLENGE, e.reason);
+        }
+    }
+
+    @Test
+    public void rejectsUnknownOrigins() {
+        RelyingPartyVerifier webOnly = new RelyingPartyVerifier(Fixtures.RP_ID, null,
+                Collections.singletonList(Fixtures.string("es256.origin")), true);
+        try {
+            webOnly.verifyAttestation(Fixtures.attestation("rs256"), registrationChallenge, ALL_ALGORITHMS);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_ORIGIN, e.reason);
+        }
+    }
+
+    @Test
+    public void rejectsCrossOriginUnlessAllowed() throws VerificationException {
+        Attestation attestation = Fixtures.attestation("es256");
+        String clientData = new String(attestation.clientDataJSON, UTF_8);
+        assertTrue(clientData.contains("\"crossOrigin\":false"));
+        Attestation crossOrigin = new Attestation(attestation.keyHandle,
+                clientData.replace("\"crossOrigin\":false", "\"crossOrigin\":true").getBytes(UTF_8),
+                attestation.attestationObject, null);
+        assertAttestationRejected(RelyingPartyVerifier.REASON_CROSS_ORIGIN, crossOrigin, ALL_ALGORITHMS);
+
+        RelyingPartyVerifier allowing = new RelyingPartyVerifier(Fixtures.RP_ID, null, ORIGINS, true, true);
+        allowing.verifyAttestation(crossOrigin, registrationChallenge, ALL_ALGORITHMS);
+    }
+
+    @Test
+    public void rejectsMalformedResponses() throws VerificationException {
+        Attestation attestation = Fixtures.attestation("eddsa");
+        byte[] clientData = Arrays.copyOf(attestation.clientDataJSON, attestation.clientDataJSON.length + 1);
+        clientData[clientData.length - 1] = '}';
+        assertAttestationRejected(RelyingPartyVerifier.REASON_MALFORMED,
+                new Attestation(attestation.keyHandle, clientData, attestation.attestationObject, null), ALL_ALGORITHMS);
+
+        byte[] truncated = Arrays.copyOf(attestation.attestationObject, attestation.attestationObject.length - 1);
+        assertAttestationRejected(RelyingPartyVerifier.REASON_MALFORMED,
+                new Attestation(attestation.keyHandle, attestation.clientDataJSON, truncated, null), ALL_ALGORITHMS);
+
+        Assertion assertion = Fixtures.assertion("eddsa");
+        assertAssertionRejected(RelyingPartyVerifier.REASON_MALFORMED, withAuthenticatorData(assertion,
+                Arrays.copyOf(assertion.authenticatorData, 20)), "eddsa");
+    }
+
+    @Test
+    public void rejectsAnotherRpId() {
+        RelyingPartyVerifier other = new RelyingPartyVerifier("other.example", null, ORIGINS, true);
+        try {
+            other.verifyAttestation(Fixtures.attestation("es256"), registrationChallenge, ALL_ALGORITHMS);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_RP_ID, e.reason);
+        }
+    }
+
+    @Test
+    public void rejectsMissingUserPresence() throws VerificationException {
+        Attestation attestation = Fixtures.attestation("es256");
+        assertAttestationRejected(RelyingPartyVerifier.REASON_USER_PRESENCE,
+                clearFlag(attestation, AuthenticatorData.FLAG_USER_PRESENT), ALL_ALGORITHMS);
+
+        Assertion assertion = Fixtures.assertion("es256");
+        assertAssertionRejected(RelyingPartyVerifier.REASON_USER_PRESENCE,
+                withAuthenticatorData(assertion, clearFlag(assertion.authenticatorData, 0, AuthenticatorData.FLAG_USER_PRESENT)),
+                "es256");
+    }
+
+    @Test
+    public void rejectsMissingUserVerificationWhenRequired() throws VerificationException {
+        Attestation attestation = clearFlag(Fixtures.attestation("rs256"), AuthenticatorData.FLAG_USER_VERIFIED);
+        assertAttestationRejected(RelyingPartyVerifier.REASON_USER_VERIFICATION, attestation, ALL_ALGORITHMS);
+
+        RelyingPartyVerifier lenient = new RelyingPartyVerifier(Fixtures.RP_ID, null, ORIGINS, false);
+        lenient.verifyAttestation(attestation, registrationChallenge, ALL_ALGORITHMS);
+    }
+
+    @Test
+    public void rejectsKeyHandleThatIsNotTheAttestedCredential() {
+        Attestation attestation = Fixtures.attestation("es256");
+        Attestation other = new Attestation(Fixtures.bytes("rs256.keyHandle"), attestation.clientDataJSON,
+                attestation.attestationObject, null);
+        assertAttestationRejected(RelyingPartyVerifier.REASON_CREDENTIAL, other, ALL_ALGORITHMS);
+    }
+
+    @Test
+    public void rejectsAssertionForAnotherCredential() throws VerificationException {
+        StoredCredential es256 = register("es256");
+        try {
+            verifier.verifyAssertion(Fixtures.assertion("rs256"), signChallenge, es256);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_CREDENTIAL, e.reason);
+        }
+    }
+
+    @Test
+    public void rejectsAlgorithmsThatWereNotRequested() {
+        List<RequestOptions.Algorithm> rsaOnly =
+                Collections.singletonList(new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, CoseKey.ALG_RS256));
+        assertAttestationRejected(RelyingPartyVerifier.REASON_ALGORITHM, Fixtures.attestation("es256"), rsaOnly);
+    }
+
+    @Test
+    public void rejectsUnsupportedAlgorithms() throws CborException {
+        int es384 = -35;
+        CoseKey key = es256Key();
+        byte[] cose = new CborWriter()
+                .writeMapStart(5)
+                .writeInt(1).writeInt(CoseKey.KTY_EC2)
+                .writeInt(3).writeInt(es384)
+                .writeInt(-1).writeInt(2)
+                .writeInt(-2).writeByteString(key.x)
+                .writeInt(-3).writeByteString(key.y)
+                .toByteArray();
+        assertAttestationRejected(RelyingPartyVerifier.REASON_UNSUPPORTED_ALGORITHM, attestation(cose),
+                Collections.singletonList(new RequestOptions.Algorithm(RequestOptions.PUBLIC_KEY, es384)));
+    }
+
+    @Test
+    public void rejectsKeysThatDoNotMatchTheirAlgorithm() throws CborException {
+        // A P-256 key claiming to be RS256 could be stored but never verify
+        CoseKey key = es256Key();
+        byte[] cose = new CborWriter()
+                .writeMapStart(5)
+                .writeInt(1).writeInt(CoseKey.KTY_EC2)
+                .writeInt(3).writeInt(CoseKey.ALG_RS256)
+                .writeInt(-1).writeInt(CoseKey.CRV_P256)
+                .writeInt(-2).writeByteString(key.x)
+                .writeInt(-3).writeByteString(key.y)
+                .toByteArray();
+        assertAttestationRejected(RelyingPartyVerifier.REASON_MALFORMED, attestation(cose), ALL_ALGORITHMS);
+    }
+
+    @Test
+    public void rejectsCounterThatDidNotIncrease() throws VerificationException {
+        StoredCredential credential = register("eddsa").withSignCount(1);
+        try {
+            verifier.verifyAssertion(Fixtures.assertion("eddsa"), signChallenge, credential);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_SIGN_COUNT, e.reason);
+        }
+    }
+
+    @Test
+    public void rejectsTamperedSignatures() throws VerificationException {
+        for (String algorithm : Fixtures.ALGORITHMS) {
+            Assertion assertion = Fixtures.assertion(algorithm);
+            byte[] signature = assertion.signature.clone();
+            signature[signature.length - 1] ^= 1;
+            assertAssertionRejected(RelyingPartyVerifier.REASON_SIGNATURE, new Assertion(assertion.keyHandle,
+                    assertion.clientDataJSON, assertion.authenticatorData, signature, null, null), algorithm);
+
+            byte[] authenticatorData = assertion.authenticatorData.clone();
+            // Counter 1 -> 2: still passes the counter check but not the signature
+            authenticatorData[authenticatorData.length - 1] = 2;
+            assertAssertionRejected(RelyingPartyVerifier.REASON_SIGNATURE,
+                    withAuthenticatorData(assertion, authenticatorData), algorithm);
+        }
+    }
+
+    @Test
+    public void acceptsTheAppIdHashOnlyWhenTheExtensionWasUsed() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("EC").generateKeyPair();
+        StoredCredential credential = new StoredCredential(new byte[]{7}, coseKey((ECPublicKey) keyPair.getPublic()), 0);
+        Assertion assertion = sign(keyPair, new byte[]{7}, sha256(APP_ID));
+
+        RelyingPartyVerifier withAppId = new RelyingPartyVerifier(Fixtures.RP_ID, APP_ID, ORIGINS, true);
+        assertEquals(1, withAppId.verifyAssertion(assertion, signChallenge, credential, true));
+
+        // Not reported as used by the client
+        try {
+            withAppId.verifyAssertion(assertion, signChallenge, credential, false);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_RP_ID, e.reason);
+        }
+        // Not requested by the relying party
+        try {
+            verifier.verifyAssertion(assertion, signChallenge, credential, true);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_RP_ID, e.reason);
+        }
+        // Used, but the authenticator signed for the RP ID
+        try {
+            withAppId.verifyAssertion(sign(keyPair, new byte[]{7}, sha256(Fixtures.RP_ID)), signChallenge, credential, true);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(RelyingPartyVerifier.REASON_RP_ID, e.reason);
+        }
+    }
+
+    @Test
+    public void batchFailuresStayWithTheirItem() throws Exception {
+        StoredCredential credential = register("es256");
+        Assertion good = Fixtures.assertion("es256");
+        byte[] signature = good.signature.clone();
+        signature[signature.length - 1] ^= 1;
+        Assertion forged = new Assertion(good.keyHandle, good.clientDataJSON, good.authenticatorData, signature, null, null);
+        Assertion incomplete = new Assertion(good.keyHandle, null, good.authenticatorData, good.signature, null, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<RelyingPartyVerifier.Result> results = verifier.verifyAll(Arrays.asList(
+                    new RelyingPartyVerifier.AssertionCheck(good, signChallenge, credential),
+                    new RelyingPartyVerifier.AssertionCheck(incomplete, signChallenge, credential),
+                    new RelyingPartyVerifier.AssertionCheck(forged, signChallenge, credential)), executor);
+
+            assertEquals(3, results.size());
+            assertTrue(results.get(0).isValid());
+            assertEquals(1, results.get(0).signCount);
+            assertFalse(results.get(1).isValid());
+            assertEquals(RelyingPartyVerifier.REASON_MALFORMED, results.get(1).error.reason);
+            assertEquals(0, results.get(1).signCount);
+            assertEquals(RelyingPartyVerifier.REASON_SIGNATURE, results.get(2).error.reason);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private StoredCredential register(String algorithm) throws VerificationException {
+        return verifier.verifyAttestation(Fixtures.attestation(algorithm), registrationChallenge, ALL_ALGORITHMS);
+    }
+
+    private void assertAttestationRejected(String reason, Attestation attestation, List<RequestOptions.Algorithm> algorithms) {
+        try {
+            verifier.verifyAttestation(attestation, registrationChallenge, algorithms);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(e.getMessage(), reason, e.reason);
+        }
+    }
+
+    private void assertAssertionRejected(String reason, Assertion assertion, String algorithm) throws VerificationException {
+        StoredCredential credential = register(algorithm);
+        try {
+            verifier.verifyAssertion(assertion, signChallenge, credential);
+            fail("Expected a VerificationException");
+        } catch (VerificationException e) {
+            assertEquals(e.getMessage(), reason, e.reason);
+        }
+    }
+
+    private static Assertion withAuthenticatorData(Assertion assertion, byte[] authenticatorData) {
+        return new Assertion(assertion.keyHandle, assertion.clientDataJSON, authenticatorData, assertion.signature,
+                null, null);
+    }
+
+    private static Attestation clearFlag(Attestation attestation, int flag) {
+        try {
+            int offset = AttestationObject.parse(attestation.attestationObject).authDataOffset;
+            return new Attestation(attestation.keyHandle, attestation.clientDataJSON,
+                    clearFlag(attestation.attestationObject, offset, flag), null);
+        } catch (CborException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] clearFlag(byte[] data, int authDataOffset, int flag) {
+        byte[] copy = data.clone();
+        copy[authDataOffset + FLAGS_OFFSET] &= ~flag;
+        return copy;
+    }
+
+    private static CoseKey es256Key() throws CborException {
+        return AttestationObject.parse(Fixtures.bytes("es256.attestation.attestationObject")).authData.publicKey;
+    }
+
+    /** A "none" attestation for the es256 client data with the given COSE key. */
+    private static Attestation attestation(byte[] coseKey) {
+        byte[] credentialId = Fixtures.bytes("es256.keyHandle");
+        ByteArrayOutputStream authData = new ByteArrayOutputStream();
+        authData.write(sha256(Fixtures.RP_ID), 0, 32);
+        authData.write(AuthenticatorData.FLAG_USER_PRESENT | AuthenticatorData.FLAG_USER_VERIFIED
+                | AuthenticatorData.FLAG_ATTESTED_CREDENTIAL_DATA);
+        authData.write(new byte[4 + 16], 0, 20);
+        authData.write(0);
+        authData.write(credentialId.length);
+        authData.write(credentialId, 0, credentialId.length);
+        authData.write(coseKey, 0, coseKey.length);
+
+        byte[] attestationObject = new CborWriter()
+                .writeMapStart(3)
+                .writeTextString("fmt").writeTextString("none")
+                .writeTextString("attStmt").writeMapStart(0)
+                .writeTextString("authData").writeByteString(authData.toByteArray())
+                .toByteArray();
+        return new Attestation(credentialId, Fixtures.bytes("es256.attestation.clientDataJSON"), attestationObject, null);
+    }
+
+    private static CoseKey coseKey(ECPublicKey publicKey) throws CborException {
+        byte[] cose = new CborWriter()
+                .writeMapStart(5)
+                .writeInt(1).writeInt(CoseKey.KTY_EC2)
+                .writeInt(3).writeInt(CoseKey.ALG_ES256)
+                .writeInt(-1).writeInt(CoseKey.CRV_P256)
+                .writeInt(-2).writeByteString(unsigned(publicKey.getW().getAffineX()))
+                .writeInt(-3).writeByteString(unsigned(publicKey.getW().getAffineY()))
+                .toByteArray();
+        return CoseKey.read(new CborReader(cose));
+    }
+
+    private Assertion sign(KeyPair keyPair, byte[] credentialId, byte[] rpIdHash) throws Exception {
+        byte[] authenticatorData = Arrays.copyOf(rpIdHash, 37);
+        authenticatorData[32] = AuthenticatorData.FLAG_USER_PRESENT | AuthenticatorData.FLAG_USER_VERIFIED;
+        authenticatorData[36] = 1;
+        byte[] clientDataJSON = ("{\"type\":\"webauthn.get\",\"challenge\":\"" + Base64Codec.encode(signChallenge, false)
+                + "\",\"origin\":\"" + ORIGINS.get(0) + "\"}").getBytes(UTF_8);
+
+        Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(authenticatorData);
+        signature.update(MessageDigest.getInstance("SHA-256").digest(clientDataJSON));
+        return new Assertion(credentialId, clientDataJSON, authenticatorData, signature.sign(), null, null);
+    }
+
+    private static byte[] unsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[32];
+        int copy = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - copy, out, 32 - copy, copy);
+        return out;
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF_8));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.rnfido;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ResultMarshallerTest {
+
+    @Test
+    public void writesParsedAttestation() {
+        MapResultWriter response = new MapResultWriter();
+        ResultMarshaller.BASE64URL.writeAttestation(Fixtures.attestation("es256"), response);
+
+        String keyHandle = Base64Codec.encode(Fixtures.bytes("es256.keyHandle"), false);
+        assertEquals(keyHandle, response.map.get("id"));
+        assertEquals(keyHandle, response.map.get("rawId"));
+        assertEquals("packed", response.map.get("fmt"));
+        assertNotNull(response.map.get("authenticatorData"));
+        assertNull(response.map.get("parseError"));
+
+        Map<?, ?> parsed = (Map<?, ?>) response.map.get("parsedAuthenticatorData");
+        assertEquals(keyHandle, parsed.get("credentialId"));
+        assertEquals(CoseKey.ALG_ES256, parsed.get("publicKeyAlgorithm"));
+        assertEquals(0.0, parsed.get("signCount"));
+    }
+
+    @Test
+    public void keepsAuthenticatorDataUnderAttestationObjectForAssertions() {
+        MapResultWriter response = new MapResultWriter();
+        ResultMarshaller.PADDED.writeAssertion(Fixtures.assertion("rs256"), response);
+
+        String authenticatorData = Base64Codec.encode(Fixtures.bytes("rs256.assertion.authenticatorData"), true);
+        assertEquals(authenticatorData, response.map.get("authenticatorData"));
+        assertEquals(authenticatorData, response.map.get("attestationObject"));
+        assertNull(response.map.get("parseError"));
+
+        Map<?, ?> parsed = (Map<?, ?>) response.map.get("parsedAuthenticatorData");
+        assertEquals(1.0, parsed.get("signCount"));
+        assertEquals(true, parsed.get("userVerified"));
+        assertFalse(parsed.containsKey("credentialId"));
+    }
+
+    @Test
+    public void reportsUndecodableAuthenticatorData() {
+        Assertion assertion = new Assertion(new byte[]{1}, new byte[]{'{', '}'}, new byte[10], new byte[]{2}, null, null);
+        MapResultWriter response = new MapResultWriter();
+        ResultMarshaller.BASE64URL.writeAssertion(assertion, response);
+
+        assertEquals(Base64Codec.encode(new byte[10], false), response.map.get("authenticatorData"));
+        assertFalse(response.map.containsKey("parsedAuthenticatorData"));
+        assertTrue(((String) response.map.get("parseError")).contains("10 bytes"));
+    }
+
+    @Test
+    public void reportsUndecodableAttestationObject() {
+        Attestation attestation = new Attestation(new byte[]{1}, new byte[]{'{', '}'}, Fixtures.hex("bf"), null);
+        MapResultWriter response = new MapResultWriter();
+        ResultMarshaller.BASE64URL.writeAttestation(attestation, response);
+
+        assertEquals("vw", response.map.get("attestationObject"));
+        assertFalse(response.map.containsKey("fmt"));
+        assertFalse(response.map.containsKey("parsedAuthenticatorData"));
+        assertTrue(((String) response.map.get("parseError")).contains("Indefinite-length"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.rnfido;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Definite-length CBOR encoder, enough to produce authenticator data and
+ * attestation objects in canonical form.
+ */
+final class CborWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteArrayOutputStream out;
+
+    CborWriter() {
+        this(64);
+    }
+
+    CborWriter(int initialSize) {
+        out = new ByteArrayOutputStream(initialSize);
+    }
+
+    CborWriter writeInt(long value) {
+        if (value >= 0) {
+            writeHeader(CborReader.MAJOR_UNSIGNED, value);
+        } else {
+            writeHeader(CborReader.MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    CborWriter writeByteString(byte[] value) {
+        writeHeader(CborReader.MAJOR_BYTES, value.length);
+        out.write(value, 0, value.length);
+        return this;
+    }
+
+    CborWriter writeTextString(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeHeader(CborReader.MAJOR_TEXT, bytes.length);
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    CborWriter writeArrayStart(int size) {
+        writeHeader(CborReader.MAJOR_ARRAY, size);
+        return this;
+    }
+
+    CborWriter writeMapStart(int size) {
+        writeHeader(CborReader.MAJOR_MAP, size);
+        return this;
+    }
+
+    byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    private void writeHeader(int majorType, long argument) {
+        int type = majorType << 5;
+        if (argument < 24) {
+            out.write(type | (int) argument);
+        } else if (argument <= 0xff) {
+            out.write(type | 24);
+            out.write((int) argument);
+        } else if (argument <= 0xffff) {
+            out.write(type | 25);
+            writeBigEndian(argument, 2);
+        } else if (argument <= 0xffffffffL) {
+            out.write(type | 26);
+            writeBigEndian(argument, 4);
+        } else {
+            out.write(type | 27);
+            writeBigEndian(argument, 8);
+        }
+    }
+
+    private void writeBigEndian(long value, int size) {
+        for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift) & 0xff);
+        }
+    }
+}
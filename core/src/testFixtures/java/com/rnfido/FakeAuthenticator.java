@@ -0,0 +1,199 @@
+package com.rnfido;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process authenticator that produces real ES256 attestations ("none"
+ * format) and assertions. It stands in for Play Services when driving the
+ * core on a plain JVM, e.g. for load tests, and settles every ceremony
+ * synchronously on the calling thread.
+ */
+final class FakeAuthenticator implements CredentialClient {
+
+    static final String E_AUTHENTICATOR_ERROR = "E_AUTHENTICATOR_ERROR";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CREDENTIAL_ID_LENGTH = 32;
+    private static final byte[] AAGUID = new byte[16];
+    private static final String[] INTERNAL_TRANSPORT = {"internal"};
+
+    private static final class Credential {
+        final String rpId;
+        final byte[] userId;
+        final PrivateKey privateKey;
+        final AtomicLong signCount = new AtomicLong();
+
+        Credential(String rpId, byte[] userId, PrivateKey privateKey) {
+            this.rpId = rpId;
+            this.userId = userId;
+            this.privateKey = privateKey;
+        }
+    }
+
+    private final String origin;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Credential> credentials = new ConcurrentHashMap<>();
+    private final ThreadLocal<KeyPairGenerator> keyPairGenerators = new ThreadLocal<KeyPairGenerator>() {
+        @Override
+        protected KeyPairGenerator initialValue() {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"), random);
+                return generator;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    FakeAuthenticator(String origin) {
+        this.origin = origin;
+    }
+
+    int size() {
+        return credentials.size();
+    }
+
+    @Override
+    public void register(Ceremony ceremony, RegisterRequest request) {
+        boolean supported = false;
+        for (RequestOptions.Algorithm algorithm : request.algorithms) {
+            supported |= algorithm.alg == CoseKey.ALG_ES256;
+        }
+        if (!supported) {
+            ceremony.reject(CeremonyMetrics.OUTCOME_AUTHENTICATOR_ERROR, E_AUTHENTICATOR_ERROR,
+                    "None of the requested algorithms is supported");
+            return;
+        }
+        for (byte[] excluded : request.excludeList.ids) {
+            if (credentials.containsKey(key(excluded))) {
+                ceremony.reject(CeremonyMetrics.OUTCOME_AUTHENTICATOR_ERROR, E_AUTHENTICATOR_ERROR,
+                        "One of the excluded credentials exists on this authenticator");
+                return;
+            }
+        }
+
+        try {
+            KeyPair keyPair = keyPairGenerators.get().generateKeyPair();
+            byte[] credentialId = new byte[CREDENTIAL_ID_LENGTH];
+            random.nextBytes(credentialId);
+
+            ECPublicKey publicKey = (ECPublicKey) keyPair.getPublic();
+            byte[] coseKey = new CborWriter()
+                    .writeMapStart(5)
+                    .writeInt(1).writeInt(CoseKey.KTY_EC2)
+                    .writeInt(3).writeInt(CoseKey.ALG_ES256)
+                    .writeInt(-1).writeInt(1)
+                    .writeInt(-2).writeByteString(unsigned(publicKey.getW().getAffineX(), 32))
+                    .writeInt(-3).writeByteString(unsigned(publicKey.getW().getAffineY(), 32))
+                    .toByteArray();
+
+            ByteArrayOutputStream authData = new ByteArrayOutputStream(128);
+            writeHeader(authData, request.rpId,
+                    AuthenticatorData.FLAG_USER_PRESENT | AuthenticatorData.FLAG_USER_VERIFIED
+                            | AuthenticatorData.FLAG_ATTESTED_CREDENTIAL_DATA, 0);
+            authData.write(AAGUID, 0, AAGUID.length);
+            authData.write(credentialId.length >>> 8);
+            authData.write(credentialId.length & 0xff);
+            authData.write(credentialId, 0, credentialId.length);
+            authData.write(coseKey, 0, coseKey.length);
+
+            byte[] attestationObject = new CborWriter(256)
+                    .writeMapStart(3)
+                    .writeTextString("fmt").writeTextString("none")
+                    .writeTextString("attStmt").writeMapStart(0)
+                    .writeTextString("authData").writeByteString(authData.toByteArray())
+                    .toByteArray();
+
+            credentials.put(key(credentialId), new Credential(request.rpId, request.userId, keyPair.getPrivate()));
+            byte[] clientDataJSON = clientData("webauthn.create", request.challenge);
+            ceremony.resolve(new Attestation(credentialId, clientDataJSON, attestationObject, INTERNAL_TRANSPORT));
+        } catch (GeneralSecurityException e) {
+            ceremony.reject(CeremonyMetrics.OUTCOME_AUTHENTICATOR_ERROR, E_AUTHENTICATOR_ERROR, e.getMessage());
+        }
+    }
+
+    @Override
+    public void sign(Ceremony ceremony, SignRequest request) {
+        byte[] credentialId = null;
+        Credential credential = null;
+        for (byte[] allowed : request.allowList.ids) {
+            Credential candidate = credentials.get(key(allowed));
+            if (candidate != null && candidate.rpId.equals(request.rpId)) {
+                credentialId = allowed;
+                credential = candidate;
+                break;
+            }
+        }
+        if (credential == null) {
+            ceremony.reject(CeremonyMetrics.OUTCOME_AUTHENTICATOR_ERROR, E_AUTHENTICATOR_ERROR,
+                    "No matching credential on this authenticator");
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream authData = new ByteArrayOutputStream(37);
+            writeHeader(authData, request.rpId,
+                    AuthenticatorData.FLAG_USER_PRESENT | AuthenticatorData.FLAG_USER_VERIFIED,
+                    credential.signCount.incrementAndGet());
+            byte[] authenticatorData = authData.toByteArray();
+            byte[] clientDataJSON = clientData("webauthn.get", request.challenge);
+
+            Signature signature = Signature.getInstance("SHA256withECDSA");
+            signature.initSign(credential.privateKey);
+            signature.update(authenticatorData);
+            signature.update(sha256(clientDataJSON));
+
+            ceremony.resolve(new Assertion(credentialId, clientDataJSON, authenticatorData, signature.sign(),
+                    credential.userId, null));
+        } catch (GeneralSecurityException e) {
+            ceremony.reject(CeremonyMetrics.OUTCOME_AUTHENTICATOR_ERROR, E_AUTHENTICATOR_ERROR, e.getMessage());
+        }
+    }
+
+    private byte[] clientData(String type, byte[] challenge) {
+        String json = "{\"type\":\"" + type + "\",\"challenge\":\"" + Base64Codec.encode(challenge, false)
+                + "\",\"origin\":\"" + origin + "\",\"crossOrigin\":false}";
+        return json.getBytes(UTF_8);
+    }
+
+    private static void writeHeader(ByteArrayOutputStream out, String rpId, int flags, long signCount)
+            throws GeneralSecurityException {
+        byte[] rpIdHash = sha256(rpId.getBytes(UTF_8));
+        out.write(rpIdHash, 0, rpIdHash.length);
+        out.write(flags);
+        out.write((int) (signCount >>> 24) & 0xff);
+        out.write((int) (signCount >>> 16) & 0xff);
+        out.write((int) (signCount >>> 8) & 0xff);
+        out.write((int) signCount & 0xff);
+    }
+
+    private static byte[] sha256(byte[] data) throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static byte[] unsigned(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, out, length - copy, copy);
+        return out;
+    }
+
+    private static String key(byte[] credentialId) {
+        return Base64Codec.encode(credentialId, false);
+    }
+}
@@ -0,0 +1,42 @@
+package com.rnfido;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link ResultWriter} backed by a {@link HashMap}, for use off-device.
+ */
+final class MapResultWriter implements ResultWriter {
+
+    final Map<String, Object> map = new HashMap<>();
+
+    @Override
+    public ResultWriter createMap() {
+        return new MapResultWriter();
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putInt(String key, int value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putDouble(String key, double value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putMap(String key, ResultWriter value) {
+        map.put(key, ((MapResultWriter) value).map);
+    }
+}
@@ -1,4 +1,4 @@
-import { NativeModules, Platform } from "react-native";
+import { DeviceEventEmitter, NativeModules, Platform } from "react-native";
 
 const { RNFido2 } = NativeModules;
 
@@ -23,12 +23,79 @@ const toNormalBase64 = (text = "") => {
   return encoded;
 };
 
+// When native runs in base64url wire mode it already accepts and emits
+// canonical unpadded base64url, so strings are passed through untouched.
+let base64UrlWire = false;
+
+const TRACE_LEVELS = ["off", "error", "info", "debug"];
+
+// Native only emits metrics events while someone is listening.
+let metricsListeners = 0;
+
+const fromNative = text => (base64UrlWire ? text : toWebsafeBase64(text));
+
+const toNative = text => (base64UrlWire ? text : toNormalBase64(text));
+
+const parseAuthenticatorData = parsed =>
+  parsed
+    ? {
+        ...parsed,
+        rpIdHash: fromNative(parsed.rpIdHash),
+        aaguid: parsed.aaguid && fromNative(parsed.aaguid),
+        credentialId: parsed.credentialId && fromNative(parsed.credentialId),
+        credentialPublicKey:
+          parsed.credentialPublicKey && fromNative(parsed.credentialPublicKey)
+      }
+    : undefined;
+
+// id and rawId are the same credential id, so it is only converted once
+const parseRegisteredData = signedData => {
+  const id = fromNative(signedData.id);
+  return {
+    id,
+    rawId: id,
+    clientDataJSON: fromNative(signedData.clientDataJSON),
+    attestationObject: fromNative(signedData.attestationObject),
+    fmt: signedData.fmt,
+    authenticatorData: signedData.authenticatorData
+      ? fromNative(signedData.authenticatorData)
+      : undefined,
+    parsedAuthenticatorData: parseAuthenticatorData(
+      signedData.parsedAuthenticatorData
+    ),
+    parseError: signedData.parseError
+  };
+};
+
+const parseSignedData = (signedData, appId) => {
+  const id = fromNative(signedData.id);
+  return {
+    id,
+    rawId: id,
+    signature: fromNative(signedData.signature),
+    // Same bytes as authenticatorData, kept for callers written against older versions
+    attestationObject: fromNative(signedData.attestationObject),
+    authenticatorData: fromNative(signedData.authenticatorData),
+    clientDataJSON: fromNative(signedData.clientDataJSON),
+    userHandle: signedData.userHandle
+      ? fromNative(signedData.userHandle)
+      : undefined,
+    parsedAuthenticatorData: parseAuthenticatorData(
+      signedData.parsedAuthenticatorData
+    ),
+    parseError: signedData.parseError,
+    extensions: {
+      appid: appId
+    }
+  };
+};
+
 let appOrigin = null;
 
 let initialized = false;
 
 const Fido2 = {
-  init: async origin => {
+  init: async (origin, { base64url = false } = {}) => {
     if (!origin) {
       throw new Error("Please specify an origin URL");
     }
@@ -37,8 +104,43 @@ const Fido2 = {
       appOrigin = origin;
     }
 
+    if (Platform.OS === "android") {
+      base64UrlWire = await RNFido2.setBase64Url(base64url);
+    }
+
     return "Initialized";
   },
+  configure: async ({ appIcon, appId, rp, user } = {}) => {
+    if (Platform.OS === "ios") {
+      if (rp) {
+        await Fido2.setRpId(rp);
+      }
+      if (user) {
+        await Fido2.setUser(user);
+      }
+      return rp ? rp.id : null;
+    }
+
+    const session = {};
+    if (appIcon !== undefined) {
+      session.appIcon = appIcon;
+    }
+    if (appId !== undefined) {
+      session.appId = appId;
+    }
+    if (rp) {
+      session.rp = { id: rp.id, name: rp.name, icon: rp.icon };
+    }
+    if (user) {
+      session.user = {
+        id: user.id,
+        name: user.username,
+        icon: user.icon,
+        displayName: user.displayName || user.username
+      };
+    }
+    return RNFido2.configure(session);
+  },
   setRpId: async ({ id, name, icon }) => {
     const rpEntity = await RNFido2.setRpId(id, name, icon);
     return rpEntity;
@@ -59,6 +161,85 @@ const Fido2 = {
     })();
     return user;
   },
+  getCapabilities: async () => {
+    if (Platform.OS === "ios") {
+      return { platformAuthenticator: false };
+    }
+
+    return RNFido2.getCapabilities();
+  },
+  setConcurrency: async ({ maxInFlight = 8, maxQueued = 32 } = {}) => {
+    if (Platform.OS === "ios") {
+      return true;
+    }
+
+    return RNFido2.setConcurrency(maxInFlight, maxQueued);
+  },
+  invalidateCredentialCache: async () => {
+    if (Platform.OS === "ios") {
+      return true;
+    }
+
+    return RNFido2.invalidateCredentialCache();
+  },
+  setTraceLevel: async (level = "info") => {
+    if (Platform.OS === "ios") {
+      return level;
+    }
+
+    await RNFido2.setTraceLevel(TRACE_LEVELS.indexOf(level));
+    return level;
+  },
+  dumpTrace: async () => {
+    if (Platform.OS === "ios") {
+      return "";
+    }
+
+    return RNFido2.dumpTrace();
+  },
+  clearCredentialIndex: async () => {
+    if (Platform.OS === "ios") {
+      return true;
+    }
+
+    return RNFido2.clearCredentialIndex();
+  },
+  getMetrics: async ({ reset = false } = {}) => {
+    if (Platform.OS === "ios") {
+      return {};
+    }
+
+    return RNFido2.getMetrics(reset);
+  },
+  onMetrics: listener => {
+    if (Platform.OS === "ios") {
+      return { remove: () => {} };
+    }
+
+    const subscription = DeviceEventEmitter.addListener(
+      "RNFido2Metrics",
+      listener
+    );
+    metricsListeners += 1;
+    if (metricsListeners === 1) {
+      RNFido2.setMetricsEvents(true);
+    }
+
+    let removed = false;
+    return {
+      remove: () => {
+        if (removed) {
+          return;
+        }
+        removed = true;
+        subscription.remove();
+        metricsListeners -= 1;
+        if (metricsListeners === 0) {
+          RNFido2.setMetricsEvents(false);
+        }
+      }
+    };
+  },
   registerKey: async ({
     keyHandles = [],
     challenge,
@@ -85,7 +266,8 @@ const Fido2 = {
         ...(options || {})
       };
       if (appId) {
-        await Fido2.setAppId({ url: appId });
+        // Applies to this call only, without a separate bridge round-trip
+        parsedOptions.session = { appId };
       }
       const signedData = await Platform.select({
         ios: () =>
@@ -98,27 +280,22 @@ const Fido2 = {
           ),
         android: () =>
           RNFido2.registerFido2(
-            keyHandles.map(keyHandle => toNormalBase64(keyHandle)),
-            toNormalBase64(challenge),
+            keyHandles.map(keyHandle => toNative(keyHandle)),
+            toNative(challenge),
             publicKeyAlgorithms,
             parsedOptions
           )
       })();
       console.log(signedData);
-      const parsedSignedData = {
-        id: toWebsafeBase64(signedData.id),
-        rawId: toWebsafeBase64(signedData.rawId),
-        clientDataJSON: toWebsafeBase64(signedData.clientDataJSON),
-        attestationObject: toWebsafeBase64(signedData.attestationObject)
-      };
-      return parsedSignedData;
+      return parseRegisteredData(signedData);
     } catch (err) {
       console.error(err);
       throw err;
     }
   },
   signChallenge: async ({
-    keyHandles,
+    // Leave empty on Android to sign with the credentials this device used before
+    keyHandles = [],
     challenge,
     appId = "",
     options = { timeout: 60, appId: true }
@@ -132,20 +309,17 @@ const Fido2 = {
       if (!initialized && Platform.OS === "ios") {
         await RNFido2.initialize(appOrigin);
       }
-      if (appId && parsedOptions.appId) {
-        await Fido2.setAppId({ url: appId });
-      }
-
-      if (!parsedOptions.appId) {
-        await Fido2.setAppId({ url: null });
-      }
+      const nativeOptions =
+        appId && parsedOptions.appId
+          ? { ...parsedOptions, session: { appId } }
+          : parsedOptions;
 
       const signedData = await Platform.select({
         android: () =>
           RNFido2.signFido2(
-            keyHandles.map(keyHandle => toNormalBase64(keyHandle)),
-            toNormalBase64(challenge),
-            parsedOptions
+            keyHandles.map(keyHandle => toNative(keyHandle)),
+            toNative(challenge),
+            nativeOptions
           ),
         ios: () =>
           RNFido2.signFido2(
@@ -155,20 +329,7 @@ const Fido2 = {
           )
       })();
 
-      const parsedSignedData = {
-        id: toWebsafeBase64(signedData.id),
-        rawId: toWebsafeBase64(signedData.rawId),
-        signature: toWebsafeBase64(signedData.signature),
-        attestationObject: toWebsafeBase64(signedData.attestationObject),
-        authenticatorData: toWebsafeBase64(signedData.authenticatorData),
-        clientDataJSON: toWebsafeBase64(signedData.clientDataJSON),
-        userHandle: signedData.userHandle
-          ? toWebsafeBase64(signedData.userHandle)
-          : undefined,
-        extensions: {
-          appid: parsedOptions.appId
-        }
-      };
+      const parsedSignedData = parseSignedData(signedData, parsedOptions.appId);
       console.log("parsedSignedData:", parsedSignedData);
       return parsedSignedData;
     } catch (err) {
@@ -196,7 +357,64 @@ const Fido2 = {
 
       throw err;
     }
-  }
+  },
+  prepareRegister: async ({
+    keyHandles = [],
+    challenge,
+    publicKeyAlgorithms = [{ type: "public-key", alg: -7 }],
+    options = {}
+  }) => {
+    if (Platform.OS === "ios") {
+      throw new Error("Prepared requests are only supported on Android");
+    }
+
+    const parsedOptions = {
+      timeout: 60,
+      requireResidentKey: true,
+      attestationPreference: "direct",
+      userVerification: "discouraged",
+      authenticatorType: "any",
+      ...(options || {})
+    };
+    const handle = await RNFido2.prepareRegister(
+      keyHandles.map(keyHandle => toNative(keyHandle)),
+      toNative(challenge),
+      publicKeyAlgorithms,
+      parsedOptions
+    );
+    return { handle, type: "register" };
+  },
+  prepareSign: async ({
+    keyHandles = [],
+    challenge,
+    appId = "",
+    options = {}
+  }) => {
+    if (Platform.OS === "ios") {
+      throw new Error("Prepared requests are only supported on Android");
+    }
+
+    const parsedOptions = {
+      timeout: 60,
+      appId: false,
+      ...(options || {})
+    };
+    const handle = await RNFido2.prepareSign(
+      keyHandles.map(keyHandle => toNative(keyHandle)),
+      toNative(challenge),
+      appId && parsedOptions.appId
+        ? { ...parsedOptions, session: { appId } }
+        : parsedOptions
+    );
+    return { handle, type: "sign", appId: parsedOptions.appId };
+  },
+  launchPrepared: async prepared => {
+    const signedData = await RNFido2.launchPrepared(prepared.handle);
+    return prepared.type === "sign"
+      ? parseSignedData(signedData, prepared.appId)
+      : parseRegisteredData(signedData);
+  },
+  discardPrepared: async prepared => RNFido2.discardPrepared(prepared.handle)
 };
 
 export default Fido2;